@@ -0,0 +1,61 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package ir;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ *   Lets a running search be abandoned. The thread running a search
+ *   installs its token with enter(), and the loops over postings call
+ *   check(), which throws a CancellationException once the token has
+ *   been cancelled from another thread. Threads without a token, such
+ *   as the indexer, are never cancelled.
+ */
+public class CancellationToken {
+
+    private static final ThreadLocal<CancellationToken> current = new ThreadLocal<CancellationToken>();
+
+    private volatile boolean cancelled = false;
+
+
+    /* --------------------------------------------- */
+
+
+    public void cancel() {
+	cancelled = true;
+    }
+
+    public boolean isCancelled() {
+	return cancelled;
+    }
+
+    /**
+     *  Makes this the token checked by the current thread.
+     */
+    public void enter() {
+	current.set( this );
+    }
+
+    /**
+     *  Removes the token of the current thread.
+     */
+    public void exit() {
+	current.remove();
+    }
+
+
+    /**
+     *  Throws a CancellationException if the search running in the
+     *  current thread has been cancelled.
+     */
+    public static void check() {
+	CancellationToken token = current.get();
+	if ( token != null && token.cancelled ) {
+	    throw new CancellationException( "Search cancelled" );
+	}
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package ir;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *   Writes the text files of the index through a FileChannel, from
+ *   large direct buffers, so that a dump costs one system call per
+ *   buffer instead of one per posting. Numbers are formatted straight
+ *   into the buffer. Characters are written as single bytes, like
+ *   RandomAccessFile.writeBytes.
+ *
+ *   In the background mode full buffers are written by a separate
+ *   thread while the next one is filled, so that encoding and I/O
+ *   overlap.
+ */
+public class ChannelWriter {
+
+    public static final int BUFFER_SIZE = 1 << 20;
+
+    /**  Buffers per background writer: one filling, the others writing. */
+    private static final int BUFFERS = 3;
+
+    private final FileOutputStream stream;
+    private final FileChannel channel;
+    private ByteBuffer buffer;
+
+    /**  Bytes in buffers handed to the channel so far. */
+    private long flushed = 0;
+
+    /**  For the background mode, otherwise null. */
+    private ExecutorService writer = null;
+    private BlockingQueue<ByteBuffer> free = null;
+    private volatile IOException failure = null;
+
+    private final byte[] digits = new byte[20];
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *  Creates or truncates the file. If @code{background} is set,
+     *  the writing is done by a separate thread.
+     */
+    public ChannelWriter( String filename, boolean background ) throws IOException {
+	stream = new FileOutputStream( filename );
+	channel = stream.getChannel();
+	buffer = ByteBuffer.allocateDirect( BUFFER_SIZE );
+	if ( background ) {
+	    free = new ArrayBlockingQueue<ByteBuffer>( BUFFERS );
+	    for ( int i=1; i<BUFFERS; i++ ) {
+		free.add( ByteBuffer.allocateDirect( BUFFER_SIZE ));
+	    }
+	    writer = Executors.newSingleThreadExecutor( new ThreadFactory() {
+		    public Thread newThread( Runnable r ) {
+			Thread thread = new Thread( r, "index writer" );
+			thread.setDaemon( true );
+			return thread;
+		    }
+		});
+	}
+    }
+
+
+    /**
+     *  The number of bytes written so far, which is where the next
+     *  byte will be in the file.
+     */
+    public long position() {
+	return flushed + buffer.position();
+    }
+
+
+    public ChannelWriter append( String s ) throws IOException {
+	for ( int i=0; i<s.length(); i++ ) {
+	    if ( !buffer.hasRemaining() ) flush();
+	    buffer.put( (byte) s.charAt( i ));
+	}
+	return this;
+    }
+
+    public ChannelWriter append( char c ) throws IOException {
+	if ( !buffer.hasRemaining() ) flush();
+	buffer.put( (byte) c );
+	return this;
+    }
+
+    public ChannelWriter append( long value ) throws IOException {
+	if ( value == Long.MIN_VALUE ) {
+	    return append( Long.toString( value ));
+	}
+	if ( buffer.remaining() < digits.length + 1 ) flush();
+	if ( value < 0 ) {
+	    buffer.put( (byte) '-' );
+	    value = -value;
+	}
+	int n = 0;
+	do {
+	    digits[n++] = (byte) ( '0' + value % 10 );
+	    value /= 10;
+	} while ( value > 0 );
+	while ( n > 0 ) {
+	    buffer.put( digits[--n] );
+	}
+	return this;
+    }
+
+    public ChannelWriter append( double value ) throws IOException {
+	return append( Double.toString( value ));
+    }
+
+
+    /**
+     *  Hands the buffer to the channel, or to the background thread.
+     */
+    private void flush() throws IOException {
+	if ( failure != null ) throw failure;
+	buffer.flip();
+	flushed += buffer.remaining();
+	if ( writer == null ) {
+	    while ( buffer.hasRemaining() ) {
+		channel.write( buffer );
+	    }
+	    buffer.clear();
+	    return;
+	}
+	final ByteBuffer full = buffer;
+	writer.execute( new Runnable() {
+		public void run() {
+		    try {
+			if ( failure == null ) {
+			    while ( full.hasRemaining() ) {
+				channel.write( full );
+			    }
+			}
+		    }
+		    catch ( IOException e ) {
+			failure = e;
+		    }
+		    full.clear();
+		    free.add( full );
+		}
+	    });
+	try {
+	    buffer = free.take();
+	}
+	catch ( InterruptedException e ) {
+	    Thread.currentThread().interrupt();
+	    throw new IOException( "Interrupted while writing the index", e );
+	}
+    }
+
+
+    /**
+     *  Writes what is left and closes the file.
+     */
+    public void close() throws IOException {
+	try {
+	    if ( buffer.position() > 0 ) flush();
+	    if ( writer != null ) {
+		writer.shutdown();
+		try {
+		    writer.awaitTermination( Long.MAX_VALUE, TimeUnit.SECONDS );
+		}
+		catch ( InterruptedException e ) {
+		    Thread.currentThread().interrupt();
+		    throw new IOException( "Interrupted while writing the index", e );
+		}
+	    }
+	    if ( failure != null ) throw failure;
+	}
+	finally {
+	    if ( writer != null ) writer.shutdownNow();
+	    stream.close();
+	}
+    }
+}
@@ -0,0 +1,473 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package ir;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedSet;
+
+/**
+ *   A compressed set of docIDs, in the manner of Roaring bitmaps.
+ *   The docIDs are split into chunks of 65536 by their upper 16 bits,
+ *   and each chunk is kept in whichever container is smallest:
+ *
+ *   <ul>
+ *   <li>a sorted array of the lower 16 bits, for sparse chunks,
+ *   <li>a bitmap of 1024 64-bit words, for dense chunks, or
+ *   <li>a list of runs of consecutive docIDs, for chunks such as a
+ *       term that occurs in nearly every document.
+ *   </ul>
+ *
+ *   AND and OR of two sets work chunk by chunk, and on bitmaps a
+ *   whole 64-bit word at a time, so the docIDs of frequent terms are
+ *   combined without visiting every posting. Sets are immutable;
+ *   containers are shared between a set and the results built from
+ *   it.
+ */
+public class DocIDSet {
+
+	/**  Largest number of docIDs in an array container. */
+	public static final int ARRAY_MAX = 4096;
+
+	/**  Words in a bitmap container, for the 65536 docIDs of a chunk. */
+	private static final int WORDS = 1024;
+
+	public static final DocIDSet EMPTY = new DocIDSet(new char[0], new Container[0], 0);
+
+	/**  The lower bits of the chunk being built, reused by each thread. */
+	private static final ThreadLocal<char[]> scratch = new ThreadLocal<char[]>() {
+		protected char[] initialValue() {
+			return new char[1 << 16];
+		}
+	};
+
+	/**  Upper 16 bits of the docIDs in each container, ascending. */
+	private final char[] keys;
+	private final Container[] containers;
+	private final int size;
+
+	private DocIDSet(char[] keys, Container[] containers, int size) {
+		this.keys = keys;
+		this.containers = containers;
+		this.size = size;
+	}
+
+	/**
+	 *  The set of the given docIDs, such as the keys of a postings
+	 *  list. DocIDs must not be negative.
+	 */
+	public static DocIDSet of(SortedSet<Integer> docIDs) {
+		if (docIDs.isEmpty()) return EMPTY;
+		int chunks = (docIDs.last() >>> 16) + 1;
+		Builder builder = new Builder(Math.min(chunks, docIDs.size()));
+		char[] lows = scratch.get();
+		int n = 0;
+		int high = -1;
+		for (int docID : docIDs) {
+			if (docID >>> 16 != high) {
+				if (n > 0) builder.add((char) high, Container.of(lows, n));
+				high = docID >>> 16;
+				n = 0;
+			}
+			lows[n++] = (char) docID;
+		}
+		if (n > 0) builder.add((char) high, Container.of(lows, n));
+		return builder.build();
+	}
+
+	/**  Number of docIDs in the set. */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean contains(int docID) {
+		int i = Arrays.binarySearch(keys, (char) (docID >>> 16));
+		return i >= 0 && containers[i].contains((char) docID);
+	}
+
+	/**
+	 *  The docIDs in ascending order.
+	 */
+	public int[] toArray() {
+		int[] docIDs = new int[size];
+		int n = 0;
+		for (int i = 0; i < keys.length; i++) {
+			n = containers[i].copyTo(docIDs, n, keys[i] << 16);
+		}
+		return docIDs;
+	}
+
+	/**
+	 *  The docIDs in both this set and the other.
+	 */
+	public DocIDSet and(DocIDSet other) {
+		Builder builder = new Builder(Math.min(keys.length, other.keys.length));
+		int i = 0;
+		int j = 0;
+		while (i < keys.length && j < other.keys.length) {
+			if (keys[i] == other.keys[j]) {
+				builder.add(keys[i], Container.and(containers[i], other.containers[j]));
+				i++;
+				j++;
+			} else if (keys[i] < other.keys[j]) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 *  The docIDs in this set, the other or both.
+	 */
+	public DocIDSet or(DocIDSet other) {
+		Builder builder = new Builder(keys.length + other.keys.length);
+		int i = 0;
+		int j = 0;
+		while (i < keys.length || j < other.keys.length) {
+			if (j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+				builder.add(keys[i], containers[i]);
+				i++;
+			} else if (i == keys.length || other.keys[j] < keys[i]) {
+				builder.add(other.keys[j], other.containers[j]);
+				j++;
+			} else {
+				builder.add(keys[i], Container.or(containers[i], other.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 *  The docIDs in any of the sets.
+	 */
+	public static DocIDSet or(List<DocIDSet> sets) {
+		DocIDSet result = EMPTY;
+		for (DocIDSet set : sets) {
+			result = result.or(set);
+		}
+		return result;
+	}
+
+	/**
+	 *  Collects the containers of a new set in key order, leaving
+	 *  out empty ones.
+	 */
+	private static class Builder {
+		private char[] keys;
+		private Container[] containers;
+		private int n = 0;
+		private int size = 0;
+
+		Builder(int capacity) {
+			keys = new char[Math.max(1, capacity)];
+			containers = new Container[keys.length];
+		}
+
+		void add(char key, Container container) {
+			if (container == null) return;
+			if (n == keys.length) {
+				keys = Arrays.copyOf(keys, 2*n);
+				containers = Arrays.copyOf(containers, 2*n);
+			}
+			keys[n] = key;
+			containers[n++] = container;
+			size += container.cardinality();
+		}
+
+		DocIDSet build() {
+			if (n == 0) return EMPTY;
+			return new DocIDSet(Arrays.copyOf(keys, n), Arrays.copyOf(containers, n), size);
+		}
+	}
+
+	/* --------------------------------------------- */
+
+	/**
+	 *  The lower 16 bits of the docIDs of one chunk.
+	 */
+	private static abstract class Container {
+
+		abstract int cardinality();
+
+		abstract boolean contains(char low);
+
+		/**  Writes the docIDs to out from index n, returning the new n. */
+		abstract int copyTo(int[] out, int n, int high);
+
+		/**  The chunk as bitmap words, which the caller may modify. */
+		abstract long[] toWords();
+
+		/**
+		 *  The smallest container for the given sorted values: an
+		 *  array takes 2 bytes a value, a bitmap 8 kB and runs 4 bytes
+		 *  a run.
+		 */
+		static Container of(char[] lows, int n) {
+			int runs = 1;
+			for (int i = 1; i < n; i++) {
+				if (lows[i] != lows[i-1] + 1) runs++;
+			}
+			if (4*runs < Math.min(2*n, 8*WORDS)) {
+				return RunContainer.of(lows, n, runs);
+			} else if (n <= ARRAY_MAX) {
+				return new ArrayContainer(Arrays.copyOf(lows, n));
+			}
+			long[] words = new long[WORDS];
+			for (int i = 0; i < n; i++) {
+				words[lows[i] >>> 6] |= 1L << lows[i];
+			}
+			return new BitmapContainer(words, n);
+		}
+
+		/**
+		 *  The container for the given words, or null if they are
+		 *  all zero.
+		 */
+		static Container of(long[] words) {
+			int n = 0;
+			for (long word : words) {
+				n += Long.bitCount(word);
+			}
+			if (n == 0) return null;
+			if (n > ARRAY_MAX) return new BitmapContainer(words, n);
+			char[] lows = new char[n];
+			BitmapContainer.copyTo(words, lows);
+			return new ArrayContainer(lows);
+		}
+
+		static Container and(Container a, Container b) {
+			if (a instanceof ArrayContainer && b instanceof ArrayContainer) {
+				return ((ArrayContainer) a).and((ArrayContainer) b);
+			} else if (a instanceof ArrayContainer) {
+				return ((ArrayContainer) a).filter(b);
+			} else if (b instanceof ArrayContainer) {
+				return ((ArrayContainer) b).filter(a);
+			}
+			long[] words = a.toWords();
+			long[] other = b instanceof BitmapContainer ? ((BitmapContainer) b).words : b.toWords();
+			for (int i = 0; i < WORDS; i++) {
+				words[i] &= other[i];
+			}
+			return of(words);
+		}
+
+		static Container or(Container a, Container b) {
+			if (a instanceof ArrayContainer && b instanceof ArrayContainer
+				&& a.cardinality() + b.cardinality() <= ARRAY_MAX) {
+				return ((ArrayContainer) a).or((ArrayContainer) b);
+			}
+			long[] words = a.toWords();
+			if (b instanceof ArrayContainer) {
+				for (char low : ((ArrayContainer) b).lows) {
+					words[low >>> 6] |= 1L << low;
+				}
+			} else {
+				long[] other = b instanceof BitmapContainer ? ((BitmapContainer) b).words : b.toWords();
+				for (int i = 0; i < WORDS; i++) {
+					words[i] |= other[i];
+				}
+			}
+			return of(words);
+		}
+	}
+
+	private static class ArrayContainer extends Container {
+		final char[] lows;
+
+		ArrayContainer(char[] lows) {
+			this.lows = lows;
+		}
+
+		int cardinality() {
+			return lows.length;
+		}
+
+		boolean contains(char low) {
+			return Arrays.binarySearch(lows, low) >= 0;
+		}
+
+		int copyTo(int[] out, int n, int high) {
+			for (char low : lows) {
+				out[n++] = high | low;
+			}
+			return n;
+		}
+
+		long[] toWords() {
+			long[] words = new long[WORDS];
+			for (char low : lows) {
+				words[low >>> 6] |= 1L << low;
+			}
+			return words;
+		}
+
+		ArrayContainer and(ArrayContainer other) {
+			char[] result = new char[Math.min(lows.length, other.lows.length)];
+			int n = 0;
+			int i = 0;
+			int j = 0;
+			while (i < lows.length && j < other.lows.length) {
+				if (lows[i] == other.lows[j]) {
+					result[n++] = lows[i];
+					i++;
+					j++;
+				} else if (lows[i] < other.lows[j]) {
+					i++;
+				} else {
+					j++;
+				}
+			}
+			return n == 0 ? null : new ArrayContainer(Arrays.copyOf(result, n));
+		}
+
+		ArrayContainer or(ArrayContainer other) {
+			char[] result = new char[lows.length + other.lows.length];
+			int n = 0;
+			int i = 0;
+			int j = 0;
+			while (i < lows.length || j < other.lows.length) {
+				if (j == other.lows.length || (i < lows.length && lows[i] < other.lows[j])) {
+					result[n++] = lows[i++];
+				} else if (i == lows.length || other.lows[j] < lows[i]) {
+					result[n++] = other.lows[j++];
+				} else {
+					result[n++] = lows[i];
+					i++;
+					j++;
+				}
+			}
+			return new ArrayContainer(Arrays.copyOf(result, n));
+		}
+
+		/**  The values that are also in the other container. */
+		ArrayContainer filter(Container other) {
+			char[] result = new char[lows.length];
+			int n = 0;
+			for (char low : lows) {
+				if (other.contains(low)) result[n++] = low;
+			}
+			return n == 0 ? null : new ArrayContainer(Arrays.copyOf(result, n));
+		}
+	}
+
+	private static class BitmapContainer extends Container {
+		final long[] words;
+		final int cardinality;
+
+		BitmapContainer(long[] words, int cardinality) {
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		int cardinality() {
+			return cardinality;
+		}
+
+		boolean contains(char low) {
+			return (words[low >>> 6] & (1L << low)) != 0;
+		}
+
+		int copyTo(int[] out, int n, int high) {
+			for (int i = 0; i < WORDS; i++) {
+				long word = words[i];
+				while (word != 0) {
+					out[n++] = high | (i << 6) | Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+				}
+			}
+			return n;
+		}
+
+		long[] toWords() {
+			return words.clone();
+		}
+
+		static void copyTo(long[] words, char[] lows) {
+			int n = 0;
+			for (int i = 0; i < WORDS; i++) {
+				long word = words[i];
+				while (word != 0) {
+					lows[n++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+		}
+	}
+
+	private static class RunContainer extends Container {
+		/**  First value and length - 1 of each run. */
+		final char[] starts;
+		final char[] lengths;
+		final int cardinality;
+
+		RunContainer(char[] starts, char[] lengths, int cardinality) {
+			this.starts = starts;
+			this.lengths = lengths;
+			this.cardinality = cardinality;
+		}
+
+		static RunContainer of(char[] lows, int n, int runs) {
+			char[] starts = new char[runs];
+			char[] lengths = new char[runs];
+			int r = 0;
+			starts[0] = lows[0];
+			for (int i = 1; i < n; i++) {
+				if (lows[i] != lows[i-1] + 1) {
+					lengths[r] = (char) (lows[i-1] - starts[r]);
+					starts[++r] = lows[i];
+				}
+			}
+			lengths[r] = (char) (lows[n-1] - starts[r]);
+			return new RunContainer(starts, lengths, n);
+		}
+
+		int cardinality() {
+			return cardinality;
+		}
+
+		boolean contains(char low) {
+			int i = Arrays.binarySearch(starts, low);
+			if (i >= 0) return true;
+			// The run starting before low, if any
+			i = -i - 2;
+			return i >= 0 && low - starts[i] <= lengths[i];
+		}
+
+		int copyTo(int[] out, int n, int high) {
+			for (int r = 0; r < starts.length; r++) {
+				for (int low = starts[r]; low <= starts[r] + lengths[r]; low++) {
+					out[n++] = high | low;
+				}
+			}
+			return n;
+		}
+
+		long[] toWords() {
+			long[] words = new long[WORDS];
+			for (int r = 0; r < starts.length; r++) {
+				int from = starts[r];
+				int to = from + lengths[r] + 1;
+				// Whole words at a time inside the run
+				while (from < to) {
+					int bits = Math.min(64 - (from & 63), to - from);
+					long mask = bits == 64 ? -1L : ((1L << bits) - 1) << (from & 63);
+					words[from >>> 6] |= mask;
+					from += bits;
+				}
+			}
+			return words;
+		}
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package ir;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ *   The file name and word count of every document, looked up by
+ *   docID. On file (store/doc_meta, big endian) the layout is
+ *
+ *   <pre>
+ *   int          MAGIC
+ *   int          N (documents), slots (largest docID + 1)
+ *   int[slots]   word counts, -1 where there is no document
+ *   int[slots+1] offsets of the names in the name bytes
+ *   byte[]       UTF-8 file names back to back
+ *   </pre>
+ *
+ *   The file is memory mapped, so opening it costs the same for any
+ *   number of documents and nothing is kept on the heap.
+ */
+public class DocumentMetadata {
+
+	public static final int MAGIC = 0x444d4554;
+
+	/**  Where FileIndex looks for the document metadata. */
+	public static final String DEFAULT_FILE = "store/doc_meta";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int HEADER = 12;
+
+	private final ByteBuffer buffer;
+	private final int numberOfDocs;
+	private final int slots;
+	private final int nameOffsetBase;
+	private final int nameBase;
+
+	private DocumentMetadata(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a document metadata file");
+		}
+		numberOfDocs = buffer.getInt(4);
+		slots = buffer.getInt(8);
+		nameOffsetBase = HEADER + 4*slots;
+		nameBase = nameOffsetBase + 4*(slots+1);
+	}
+
+	/**
+	 *  Maps the given metadata file, or returns null if it does not
+	 *  exist or cannot be read.
+	 */
+	public static DocumentMetadata open(String filename) {
+		File f = new File(filename);
+		if (!f.exists()) return null;
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(f, "r");
+			FileChannel channel = file.getChannel();
+			return new DocumentMetadata(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} catch (IOException e) {
+			System.err.println(e);
+			return null;
+		} finally {
+			try {
+				if (file != null) file.close();
+			} catch (IOException e) {
+				System.err.println(e);
+			}
+		}
+	}
+
+	/**
+	 *  Reads a store/doc_info file of "docID name wordCount" lines,
+	 *  as written before the metadata file existed, or returns null
+	 *  if it cannot be read. Names may contain spaces.
+	 */
+	public static DocumentMetadata readDocInfo(String filename) {
+		TreeMap<String, String> names = new TreeMap<String, String>();
+		TreeMap<String, Integer> wordCounts = new TreeMap<String, Integer>();
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(new File(filename)));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int first = line.indexOf(' ');
+				int last = line.lastIndexOf(' ');
+				if (first < 0 || last <= first) continue;
+				String docID = line.substring(0, first);
+				names.put(docID, line.substring(first + 1, last));
+				wordCounts.put(docID, Integer.parseInt(line.substring(last + 1).trim()));
+			}
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			write(bytes, names, wordCounts);
+			return new DocumentMetadata(ByteBuffer.wrap(bytes.toByteArray()));
+		} catch (IOException e) {
+			System.err.println(e);
+			return null;
+		} finally {
+			try {
+				if (reader != null) reader.close();
+			} catch (IOException e) {
+				System.err.println(e);
+			}
+		}
+	}
+
+	/**
+	 *  Writes the metadata of the documents, keyed by docID.
+	 */
+	public static void write(String filename, Map<String, String> names,
+							 Map<String, Integer> wordCounts) throws IOException {
+		write(new BufferedOutputStream(new FileOutputStream(filename)), names, wordCounts);
+	}
+
+	private static void write(OutputStream stream, Map<String, String> names,
+							  Map<String, Integer> wordCounts) throws IOException {
+		int slots = 0;
+		for (String docID : names.keySet()) {
+			slots = Math.max(slots, Integer.parseInt(docID) + 1);
+		}
+		int[] counts = new int[slots];
+		byte[][] bytes = new byte[slots][];
+		Arrays.fill(counts, -1);
+		for (Map.Entry<String, String> entry : names.entrySet()) {
+			int d = Integer.parseInt(entry.getKey());
+			Integer count = wordCounts.get(entry.getKey());
+			counts[d] = count == null ? 0 : count;
+			bytes[d] = entry.getValue().getBytes(UTF8);
+		}
+		DataOutputStream out = new DataOutputStream(stream);
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(names.size());
+			out.writeInt(slots);
+			for (int count : counts) {
+				out.writeInt(count);
+			}
+			int offset = 0;
+			for (byte[] b : bytes) {
+				out.writeInt(offset);
+				if (b != null) offset += b.length;
+			}
+			out.writeInt(offset);
+			for (byte[] b : bytes) {
+				if (b != null) out.write(b);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**  Number of documents. */
+	public int size() {
+		return numberOfDocs;
+	}
+
+	/**
+	 *  The number of words in a document, or -1 if there is no such
+	 *  document.
+	 */
+	public int wordCount(int docID) {
+		if (docID < 0 || docID >= slots) return -1;
+		return buffer.getInt(HEADER + 4*docID);
+	}
+
+	/**
+	 *  The file name of a document, or null if there is no such
+	 *  document.
+	 */
+	public String name(int docID) {
+		if (wordCount(docID) < 0) return null;
+		int start = buffer.getInt(nameOffsetBase + 4*docID);
+		int end = buffer.getInt(nameOffsetBase + 4*(docID+1));
+		byte[] bytes = new byte[end - start];
+		// A private view, so that lookups may run concurrently
+		ByteBuffer view = buffer.duplicate();
+		view.position(nameBase + start);
+		view.get(bytes);
+		return new String(bytes, UTF8);
+	}
+}
@@ -0,0 +1,374 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package ir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ *   The token stream of every document, compressed, so that result
+ *   snippets can be made without the original files. Token i of a
+ *   document is the word at position i in the postings.
+ *
+ *   Documents are stored back to back as space separated UTF-8 in
+ *   blocks of about BLOCK_SIZE bytes, each compressed with Deflate
+ *   (store/documents). Every block is an int with its compressed
+ *   length, an int with its uncompressed length and the compressed
+ *   bytes. The offset index (store/documents_index) is
+ *
+ *   <pre>
+ *   int             MAGIC, slots (largest docID + 1)
+ *   slots times     long block offset (-1 if none), int start and
+ *                   int length within the uncompressed block
+ *   </pre>
+ *
+ *   The store is written while indexing, and the offset index when
+ *   the index is saved, after any renumbering of the documents.
+ */
+public class DocumentStore {
+
+    public static final int MAGIC = 0x444f4353;
+
+    /**  Uncompressed size after which a block is written. */
+    public static final int BLOCK_SIZE = 32 * 1024;
+
+    /**  Number of words in a snippet. */
+    public static final int SNIPPET_LENGTH = 20;
+
+    public static final String DEFAULT_FILE = "store/documents";
+    public static final String DEFAULT_INDEX_FILE = "store/documents_index";
+
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private RandomAccessFile file;
+
+    /**  Where each document is: block offset, start and length. */
+    private long[] block = new long[0];
+    private int[] start = new int[0];
+    private int[] length = new int[0];
+
+    /**  The block being filled, and where it will be written. */
+    private ByteArrayOutputStream current = null;
+    private long currentOffset = 0;
+
+    /**  The document being added. */
+    private int pendingDocID = -1;
+    private StringBuilder pending = new StringBuilder();
+
+    /**  The last block read. */
+    private long cachedOffset = -1;
+    private byte[] cached = null;
+
+
+    /* --------------------------------------------- */
+
+
+    private DocumentStore( RandomAccessFile file ) {
+	this.file = file;
+    }
+
+
+    /**
+     *  Creates an empty store to be filled while indexing.
+     */
+    public static DocumentStore create( String filename ) throws IOException {
+	File f = new File( filename );
+	f.delete();
+	DocumentStore store = new DocumentStore( new RandomAccessFile( f, "rw" ));
+	store.current = new ByteArrayOutputStream( BLOCK_SIZE + BLOCK_SIZE/4 );
+	return store;
+    }
+
+
+    /**
+     *  Opens a store and its offset index for reading, or returns
+     *  null if they do not exist or cannot be read.
+     */
+    public static DocumentStore open( String filename, String indexFilename ) {
+	File f = new File( filename );
+	File indexFile = new File( indexFilename );
+	if ( !f.exists() || !indexFile.exists() ) return null;
+	DataInputStream in = null;
+	try {
+	    in = new DataInputStream( new BufferedInputStream( new FileInputStream( indexFile )));
+	    if ( in.readInt() != MAGIC ) {
+		throw new IOException( indexFilename + " is not a document store index" );
+	    }
+	    int slots = in.readInt();
+	    DocumentStore store = new DocumentStore( new RandomAccessFile( f, "r" ));
+	    store.block = new long[slots];
+	    store.start = new int[slots];
+	    store.length = new int[slots];
+	    for ( int d=0; d<slots; d++ ) {
+		store.block[d] = in.readLong();
+		store.start[d] = in.readInt();
+		store.length[d] = in.readInt();
+	    }
+	    return store;
+	}
+	catch ( IOException e ) {
+	    System.err.println( e );
+	    return null;
+	}
+	finally {
+	    try {
+		if ( in != null ) in.close();
+	    }
+	    catch ( IOException e ) {
+		System.err.println( e );
+	    }
+	}
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *  Appends a token to a document. The tokens of a document must
+     *  be added in order and together.
+     */
+    public synchronized void add( int docID, String token ) throws IOException {
+	if ( docID != pendingDocID ) {
+	    flushDocument();
+	    pendingDocID = docID;
+	}
+	if ( pending.length() > 0 ) {
+	    pending.append( ' ' );
+	}
+	pending.append( token );
+    }
+
+
+    private void flushDocument() throws IOException {
+	if ( pendingDocID < 0 ) return;
+	byte[] bytes = pending.toString().getBytes( UTF8 );
+	if ( current.size() > 0 && current.size() + bytes.length > BLOCK_SIZE ) {
+	    flushBlock();
+	}
+	grow( pendingDocID + 1 );
+	block[pendingDocID] = currentOffset;
+	start[pendingDocID] = current.size();
+	length[pendingDocID] = bytes.length;
+	current.write( bytes, 0, bytes.length );
+	pendingDocID = -1;
+	pending.setLength( 0 );
+    }
+
+
+    private void flushBlock() throws IOException {
+	if ( current.size() == 0 ) return;
+	byte[] raw = current.toByteArray();
+	Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+	deflater.setInput( raw );
+	deflater.finish();
+	ByteArrayOutputStream compressed = new ByteArrayOutputStream( raw.length / 2 );
+	byte[] buf = new byte[8192];
+	while ( !deflater.finished() ) {
+	    int n = deflater.deflate( buf );
+	    compressed.write( buf, 0, n );
+	}
+	deflater.end();
+	file.seek( currentOffset );
+	file.writeInt( compressed.size() );
+	file.writeInt( raw.length );
+	file.write( compressed.toByteArray() );
+	currentOffset = file.getFilePointer();
+	current.reset();
+    }
+
+
+    private void grow( int slots ) {
+	if ( slots <= block.length ) return;
+	int size = Math.max( slots, 2*block.length );
+	int old = block.length;
+	block = Arrays.copyOf( block, size );
+	start = Arrays.copyOf( start, size );
+	length = Arrays.copyOf( length, size );
+	Arrays.fill( block, old, size, -1 );
+    }
+
+
+    /**
+     *  Moves every document from its old docID to map[old], as when
+     *  the index is renumbered. A negative map entry drops it.
+     */
+    public synchronized void renumber( int[] map ) throws IOException {
+	flushDocument();
+	int slots = 0;
+	for ( int d=0; d<map.length; d++ ) {
+	    slots = Math.max( slots, map[d] + 1 );
+	}
+	long[] newBlock = new long[slots];
+	int[] newStart = new int[slots];
+	int[] newLength = new int[slots];
+	Arrays.fill( newBlock, -1 );
+	for ( int d=0; d<Math.min( map.length, block.length ); d++ ) {
+	    if ( map[d] >= 0 ) {
+		newBlock[map[d]] = block[d];
+		newStart[map[d]] = start[d];
+		newLength[map[d]] = length[d];
+	    }
+	}
+	block = newBlock;
+	start = newStart;
+	length = newLength;
+    }
+
+
+    /**
+     *  Writes the last block and the offset index.
+     */
+    public synchronized void writeIndex( String filename ) throws IOException {
+	flushDocument();
+	flushBlock();
+	int slots = block.length;
+	while ( slots > 0 && block[slots-1] < 0 ) {
+	    slots--;
+	}
+	DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( filename )));
+	try {
+	    out.writeInt( MAGIC );
+	    out.writeInt( slots );
+	    for ( int d=0; d<slots; d++ ) {
+		out.writeLong( block[d] );
+		out.writeInt( start[d] );
+		out.writeInt( length[d] );
+	    }
+	}
+	finally {
+	    out.close();
+	}
+    }
+
+
+    public synchronized void close() throws IOException {
+	file.close();
+    }
+
+
+    /**
+     *  True for a store being filled while indexing, false for one
+     *  opened for reading.
+     */
+    public boolean isWritable() {
+	return current != null;
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *  The tokens of a document, or null if it is not in the store.
+     */
+    public synchronized String[] tokens( int docID ) throws IOException {
+	if ( docID == pendingDocID ) {
+	    flushDocument();
+	}
+	if ( docID < 0 || docID >= block.length || block[docID] < 0 ) {
+	    return null;
+	}
+	byte[] bytes;
+	if ( current != null && block[docID] == currentOffset ) {
+	    // Still in the block being filled
+	    bytes = current.toByteArray();
+	}
+	else {
+	    bytes = readBlock( block[docID] );
+	}
+	String text = new String( bytes, start[docID], length[docID], UTF8 );
+	return text.length() == 0 ? new String[0] : text.split( " " );
+    }
+
+
+    private byte[] readBlock( long offset ) throws IOException {
+	if ( offset != cachedOffset ) {
+	    file.seek( offset );
+	    byte[] compressed = new byte[file.readInt()];
+	    byte[] raw = new byte[file.readInt()];
+	    file.readFully( compressed );
+	    Inflater inflater = new Inflater();
+	    try {
+		inflater.setInput( compressed );
+		int n = 0;
+		while ( n < raw.length && !inflater.finished() ) {
+		    n += inflater.inflate( raw, n, raw.length - n );
+		}
+	    }
+	    catch ( DataFormatException e ) {
+		throw new IOException( "Corrupt block at " + offset + " in document store", e );
+	    }
+	    finally {
+		inflater.end();
+	    }
+	    cachedOffset = offset;
+	    cached = raw;
+	}
+	return cached;
+    }
+
+
+    /**
+     *  A snippet of SNIPPET_LENGTH words around the densest cluster
+     *  of the given positions, which are marked with brackets.
+     */
+    public static String snippet( String[] tokens, Collection<Integer> positions ) {
+	List<Integer> sorted = new ArrayList<Integer>();
+	for ( int pos : positions ) {
+	    if ( pos >= 0 && pos < tokens.length ) sorted.add( pos );
+	}
+	Collections.sort( sorted );
+	// The window start covering the most positions
+	int from = 0;
+	int best = 0;
+	for ( int i=0, j=0; i<sorted.size(); i++ ) {
+	    while ( sorted.get( i ) - sorted.get( j ) >= SNIPPET_LENGTH ) {
+		j++;
+	    }
+	    if ( i - j + 1 > best ) {
+		best = i - j + 1;
+		// Center the covered positions in the window
+		int span = sorted.get( i ) - sorted.get( j );
+		from = sorted.get( j ) - ( SNIPPET_LENGTH - span ) / 2;
+	    }
+	}
+	from = Math.max( 0, Math.min( from, tokens.length - SNIPPET_LENGTH ));
+	int to = Math.min( tokens.length, from + SNIPPET_LENGTH );
+
+	StringBuilder snippet = new StringBuilder();
+	if ( from > 0 ) snippet.append( "..." );
+	for ( int i=from; i<to; i++ ) {
+	    if ( i > from || from > 0 ) snippet.append( ' ' );
+	    if ( Collections.binarySearch( sorted, i ) >= 0 ) {
+		snippet.append( '[' ).append( tokens[i] ).append( ']' );
+	    }
+	    else {
+		snippet.append( tokens[i] );
+	    }
+	}
+	if ( to < tokens.length ) snippet.append( " ..." );
+	return snippet.toString();
+    }
+}
@@ -6,62 +6,175 @@
 
 package ir;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.HashMap;
+import java.util.Map;
+import java.util.HashSet;
 
 /**
  *   
  */
 public class FileIndex implements Index {
 	
-	private static class DocInfo {
-		public String filename;
-		public int wordCount;
-		public DocInfo(String filename, int wordCount) {
-			this.filename = filename;
-			this.wordCount = wordCount;
-		}
-	}
+	/**
+	 *  Ranked queries fall back to the full postings lists when the
+	 *  champion lists yield fewer candidates than this.
+	 */
+	public static final int MIN_CHAMPION_CANDIDATES = 10;
 	
 	private int totalNumberOfDocuments = -1;
-	private HashMap<String, DocInfo> docInfo = new HashMap<String, DocInfo>();
+	private PageRankScores pagerank = PageRankScores.open(PageRankScores.DEFAULT_FILE);
+	
+	/**  True if docIDs were assigned by descending PageRank. */
+	private boolean pagerankOrdered = false;
+	
+	/**  True if the store has a bigram index. */
+	private boolean hasBigrams = new File("store/bigram_index").exists();
+	
+	/**  Term vectors of the documents, opened when first needed. */
+	private ForwardIndex forward = null;
+	
+	/**  K-grams of the dictionary for wildcards, read when first needed. */
+	private KGramIndex kgrams = null;
+	
+	/**  Spelling suggestions from the dictionary, read when first needed. */
+	private SpellingCorrector spelling = null;
+	
+	/**  The tokens of the documents, opened when first needed, if any. */
+	private DocumentStore documents = null;
+	private boolean documentsOpened = false;
+	
+	/**  Terms occurring in a large share of the documents. */
+	private HashSet<String> commonTerms = new HashSet<String>();
+	
+	/**  Whether the common terms fast path is used. */
+	private boolean commonTermsMode = false;
+	
+	/**  The first words of the pairs in the next-word index. */
+	private HashSet<String> nextWordFirstWords = new HashSet<String>();
+	
+	/**  File names and word counts of the documents, by docID. */
+	private DocumentMetadata docInfo;
 	
 	public FileIndex() {
 		super();
 		
-		BufferedReader doc_info_reader = null;
+		docInfo = DocumentMetadata.open(DocumentMetadata.DEFAULT_FILE);
+		if (docInfo == null) {
+			// Stores written before the metadata file
+			docInfo = DocumentMetadata.readDocInfo("store/doc_info");
+		}
+		totalNumberOfDocuments = docInfo == null ? 0 : docInfo.size();
 		
-		try {
-			doc_info_reader = new BufferedReader(new FileReader(new File("store/doc_info")));
-			String line;
-			int docCount = 0;
-			while ((line = doc_info_reader.readLine()) != null) {
-				docCount++;
-				String[] tokens = line.split("\\s+");
-				String docId = tokens[0];
-				String filename = tokens[1];
-				int wordCount = Integer.parseInt(tokens[2]);
-				docInfo.put(docId, new DocInfo(filename, wordCount));
+		File docid_map = new File("store/docid_map");
+		if (docid_map.exists()) {
+			BufferedReader map_reader = null;
+			try {
+				map_reader = new BufferedReader(new FileReader(docid_map));
+				pagerankOrdered = "pagerank".equals(map_reader.readLine());
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				try {
+					map_reader.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
 			}
-			totalNumberOfDocuments = docCount;
-		} catch (IOException e) {
-			e.printStackTrace();
-		} finally {
+		}
+		
+		File common_terms = new File("store/common_terms");
+		if (common_terms.exists()) {
+			BufferedReader terms_reader = null;
 			try {
-				doc_info_reader.close();
+				terms_reader = new BufferedReader(new FileReader(common_terms));
+				String line;
+				while ((line = terms_reader.readLine()) != null) {
+					String[] tokens = line.split("\\s+");
+					if (tokens[0].length() > 0) commonTerms.add(tokens[0]);
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
+			} finally {
+				try {
+					terms_reader.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
 			}
 		}
+		
+		File nextword_words = new File("store/nextword_words");
+		if (nextword_words.exists() && new File("store/nextword_index").exists()) {
+			BufferedReader words_reader = null;
+			try {
+				words_reader = new BufferedReader(new FileReader(nextword_words));
+				String line;
+				while ((line = words_reader.readLine()) != null) {
+					nextWordFirstWords.add(line.trim());
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				try {
+					words_reader.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	/**
+	 *  Selects the common terms fast path: terms listed in
+	 *  store/common_terms are treated as optional for ranked queries
+	 *  and are only looked up in the documents matching the other
+	 *  terms. Phrases always look up their later lists only in the
+	 *  documents matched so far.
+	 */
+	public void setCommonTermsMode(boolean commonTermsMode) {
+		this.commonTermsMode = commonTermsMode;
+	}
+	
+	/**
+	 *  Whether the fast path applies: it is selected, and the query
+	 *  has both rare and common terms.
+	 */
+	private boolean useCommonTerms(List<String> keys) {
+		if (!commonTermsMode) return false;
+		boolean rare = false;
+		boolean common = false;
+		for (String key : keys) {
+			if (commonTerms.contains(key)) common = true;
+			else rare = true;
+		}
+		return rare && common;
+	}
+	
+	/**
+	 *  The keys with the common terms moved to the end.
+	 */
+	private List<String> commonTermsLast(List<String> keys) {
+		List<String> ordered = new ArrayList<String>();
+		for (String key : keys) {
+			if (!commonTerms.contains(key)) ordered.add(key);
+		}
+		for (String key : keys) {
+			if (commonTerms.contains(key)) ordered.add(key);
+		}
+		return ordered;
 	}
 	
     /**
@@ -75,10 +188,119 @@ public class FileIndex implements Index {
      *  Returns all the words in the index.
      */
     public Iterator<String> getDictionary() {
-		return null;
-		// return index.keySet().iterator();
+		return kgrams().terms().iterator();
     }
 	
+	/**
+	 *  The k-gram index of the dictionary. Stores written without
+	 *  one get it built from the terms and document frequencies in
+	 *  store/index.
+	 */
+	private synchronized KGramIndex kgrams() {
+		if (kgrams == null) {
+			kgrams = KGramIndex.open(KGramIndex.DEFAULT_FILE);
+		}
+		if (kgrams == null) {
+			List<String> terms = new ArrayList<String>();
+			List<Integer> df = new ArrayList<Integer>();
+			BufferedReader index_reader = null;
+			try {
+				index_reader = new BufferedReader(new FileReader(new File("store/index")));
+				String line;
+				while ((line = index_reader.readLine()) != null) {
+					String[] tokens = line.split("\\s+");
+					if (tokens.length < 2) continue;
+					terms.add(tokens[0]);
+					df.add(tokens.length > 3 ? Integer.parseInt(tokens[3]) : 0);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				try {
+					if (index_reader != null) index_reader.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			int[] dfs = new int[df.size()];
+			for (int i = 0; i < dfs.length; i++) {
+				dfs[i] = df.get(i);
+			}
+			kgrams = new KGramIndex(terms.toArray(new String[terms.size()]), dfs);
+		}
+		return kgrams;
+	}
+	
+	/**
+	 *  Returns the query with its unknown terms replaced by the
+	 *  closest terms in the dictionary, or null if there are none.
+	 *  Stores written without store/spelling get it built from the
+	 *  dictionary.
+	 */
+	public Query getSpellingSuggestion(Query query) {
+		synchronized (this) {
+			if (spelling == null) {
+				spelling = SpellingCorrector.open(SpellingCorrector.DEFAULT_FILE);
+			}
+			if (spelling == null) {
+				KGramIndex kgrams = kgrams();
+				String[] terms = new String[kgrams.size()];
+				int[] df = new int[terms.length];
+				for (int i = 0; i < terms.length; i++) {
+					terms[i] = kgrams.term(i);
+					df[i] = kgrams.df(i);
+				}
+				spelling = new SpellingCorrector(terms, df);
+			}
+		}
+		return spelling.correct(query);
+	}
+	
+	/**
+	 *  Returns a snippet of a document with the query terms marked,
+	 *  or null if the store has no documents. The positions of the
+	 *  terms are read from the postings of that document only.
+	 */
+	public String getSnippet(int docID, Query query) {
+		synchronized (this) {
+			if (!documentsOpened) {
+				documents = DocumentStore.open(DocumentStore.DEFAULT_FILE, DocumentStore.DEFAULT_INDEX_FILE);
+				documentsOpened = true;
+			}
+		}
+		if (documents == null) return null;
+		PostingsList candidates = new PostingsList();
+		candidates.add(new PostingsEntry(docID, 0));
+		List<Integer> positions = new ArrayList<Integer>();
+		for (String term : query.terms) {
+			PostingsEntry entry = readPostings(term, false, "store/", candidates).get(docID);
+			if (entry == null) continue;
+			Iterator<Integer> pos_iter = entry.getPositionIterator();
+			while (pos_iter.hasNext()) {
+				positions.add(pos_iter.next());
+			}
+		}
+		try {
+			String[] tokens = documents.tokens(docID);
+			return tokens == null ? null : DocumentStore.snippet(tokens, positions);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	/**
+	 *  The terms matching a wildcard pattern.
+	 */
+	private List<String> expand(String pattern) {
+		KGramIndex kgrams = kgrams();
+		List<String> terms = new ArrayList<String>();
+		for (int termID : kgrams.expand(pattern)) {
+			terms.add(kgrams.term(termID));
+		}
+		return terms;
+	}
+	
 	/*
 	private int retrieveTotalNumberOfDocuments() {
 		
@@ -121,7 +343,7 @@ public class FileIndex implements Index {
 		{
 			// Assume file longer than 100 chars
 			// and last line < 100 chars
-			file.seek(file.length() - 100);
+			file.seek(Math.max(0, file.length() - 100));
 			file.readLine();
 			b_1 = file.getFilePointer();
 			String line = "";
@@ -184,7 +406,7 @@ public class FileIndex implements Index {
      */
     public String getDocName( String docID ) {
 		
-		return docInfo.get(docID).filename;
+		return docInfo.name(Integer.parseInt(docID));
 		
 		/*
 		RandomAccessFile doc_info_file = null;
@@ -217,7 +439,7 @@ public class FileIndex implements Index {
      */
     public int getDocWordCount( String docID ) {
 		
-		return docInfo.get(docID).wordCount;
+		return docInfo.wordCount(Integer.parseInt(docID));
 		
 		/*
 		RandomAccessFile doc_info_file = null;
@@ -259,6 +481,117 @@ public class FileIndex implements Index {
      *  if the term is not in the index.
      */
     public PostingsList getPostings(String token, boolean skipPositions) {
+		return readPostings(token, skipPositions, "store/");
+	}
+	
+	/**
+	 *  Returns the tf-idf weights of the terms of a document, or
+	 *  null if there is no such document or the store has no
+	 *  forward index.
+	 */
+	public synchronized Map<String, Double> getTermWeights(int docID) {
+		if (forward == null) {
+			forward = ForwardIndex.open(ForwardIndex.DEFAULT_FILE);
+			if (forward == null) return null;
+		}
+		return forward.termWeights(docID);
+	}
+	
+	/**
+	 *  Postings for the phrase planner, costed by the number of
+	 *  positions stored in the index lines. Stores written before
+	 *  the counts were added cost every term the same.
+	 */
+	private final PhrasePlanner.Source phraseSource = new PhrasePlanner.Source() {
+		public long cost(int kind, String key) {
+			String prefix = "store/";
+			int field = 4;
+			if (kind == PhrasePlanner.TERM && Query.isWildcard(key)) {
+				long cost = 0;
+				for (String term : expand(key)) {
+					String[] tokens = indexLine(term, prefix).split("\\s+");
+					cost += tokens.length > field ? Long.parseLong(tokens[field]) : 1;
+				}
+				return cost;
+			} else if (kind == PhrasePlanner.BIGRAM) {
+				if (!hasBigrams) return -1;
+				prefix = "store/bigram_";
+				field = 3;
+			} else if (kind == PhrasePlanner.NEXT_WORD) {
+				String first = key.substring(0, key.indexOf(Query.BIGRAM_SEPARATOR));
+				if (!nextWordFirstWords.contains(first)) return -1;
+				prefix = "store/nextword_";
+				field = 3;
+			}
+			String[] tokens = indexLine(key, prefix).split("\\s+");
+			if (tokens.length < 2) return 0;
+			return tokens.length > field ? Long.parseLong(tokens[field]) : 1;
+		}
+		public PostingsList fetch(int kind, String key, boolean skipPositions, PostingsList candidates) {
+			if (kind == PhrasePlanner.BIGRAM) {
+				return readPostings(key, skipPositions, "store/bigram_", candidates);
+			} else if (kind == PhrasePlanner.NEXT_WORD) {
+				return readPostings(key, skipPositions, "store/nextword_", candidates);
+			}
+			return readPostings(key, skipPositions, "store/", candidates);
+		}
+	};
+	
+	/**
+	 *  Returns the line of a key in the index file whose name starts
+	 *  with @code{prefix}, or "" if the key is not there.
+	 */
+	private String indexLine(String key, String prefix) {
+		RandomAccessFile index_file = null;
+		try {
+			index_file = new RandomAccessFile(new File(prefix + "index"), "r");
+			return extractLine(key, index_file);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return "";
+		} finally {
+			try {
+				if (index_file != null) index_file.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 *  Returns the postings of a term, or of a bigram key if
+	 *  @code{bigram} is set.
+	 */
+	private PostingsList lookup(String key, boolean skipPositions, boolean bigram) {
+		if (!bigram) return getPostings(key, skipPositions);
+		if (!hasBigrams) return new PostingsList();
+		return readPostings(key, skipPositions, "store/bigram_");
+	}
+	
+    /**
+     *  Reads the postings of a key from the index, docs and pos files
+     *  whose names start with @code{prefix}.
+     */
+    private PostingsList readPostings(String token, boolean skipPositions, String prefix) {
+		return readPostings(token, skipPositions, prefix, null);
+	}
+	
+    /**
+     *  Reads the postings of a key, as above, but only for the
+     *  documents in @code{candidates} unless that is null. Positions
+     *  of other documents are never read.
+     */
+    private PostingsList readPostings(String token, boolean skipPositions, String prefix,
+									  PostingsList candidates) {
+		
+		if (prefix.equals("store/") && Query.isWildcard(token)) {
+			// The union of the terms the pattern expands to
+			List<PostingsList> lists = new ArrayList<PostingsList>();
+			for (String term : expand(token)) {
+				lists.add(readPostings(term, skipPositions, prefix, candidates));
+			}
+			return PostingsList.union(lists);
+		}
 		
 		PostingsList result = new PostingsList();
 		
@@ -267,9 +600,9 @@ public class FileIndex implements Index {
 		RandomAccessFile pos_file = null;
 
 		try {
-			index_file 	= new RandomAccessFile(new File("store/index"), "r");
-			docs_file 	= new RandomAccessFile(new File("store/docs"), "r");
-			pos_file 	= new RandomAccessFile(new File("store/pos"), "r");
+			index_file 	= new RandomAccessFile(new File(prefix + "index"), "r");
+			docs_file 	= new RandomAccessFile(new File(prefix + "docs"), "r");
+			pos_file 	= new RandomAccessFile(new File(prefix + "pos"), "r");
 
 			// String line;
 			// while ((line = index_file.readLine()) != null) {
@@ -281,38 +614,23 @@ public class FileIndex implements Index {
 			if (tokens.length > 1) {
 				// System.out.println(line);
 				long doc_pos = Long.parseLong(tokens[1]);
-				docs_file.seek(doc_pos);
-				String docs_string = docs_file.readLine();
-				// System.out.println(docs_string);
-				String[] doc_ID_strings = docs_string.split("\\s+");
-				for (String doc_ID_string: doc_ID_strings) {
-					String[] tok2 = doc_ID_string.split(":");
-					int docID = Integer.parseInt(tok2[0]);
-					if (skipPositions) {
-						result.add(docID, 0, 0);
-					} else {
-						long posRef = Long.parseLong(tok2[1]);
-						pos_file.seek(posRef);
-						String poss_string = pos_file.readLine();
-						// System.out.println(poss_string);
-						String[] pos_toks = poss_string.split("\\s+");
-						for (String pos_tok : pos_toks) {
-							int pos = Integer.parseInt(pos_tok);
-							
-							int tf_dt = pos_toks.length;
-							int N = totalNumberOfDocuments;
-							int df_t = doc_ID_strings.length;
-							int len_d = getDocWordCount(tok2[0]);
-							
-							double idf_t = Math.log(1.0*N/df_t);
-							double tf_idf_dt = 1.0 * tf_dt * idf_t / len_d;
-							// System.out.println("tf_dt: " + tf_dt);
-							// System.out.println("N: " + N);
-							// System.out.println("df_t: " + df_t);
-							// System.out.println("len_d: " + len_d);
-							// System.out.println("Score: " + tf_idf_dt);
-							
-							result.add(docID, tf_idf_dt, pos);
+				if (candidates != null) {
+					readCandidates(docs_file, doc_pos, documentFrequency(tokens, prefix),
+								   candidates, skipPositions, pos_file, result);
+				} else {
+					docs_file.seek(doc_pos);
+					String docs_string = docs_file.readLine();
+					// System.out.println(docs_string);
+					String[] doc_ID_strings = docs_string.split("\\s+");
+					for (String doc_ID_string: doc_ID_strings) {
+						CancellationToken.check();
+						String[] tok2 = doc_ID_string.split(":");
+						int docID = Integer.parseInt(tok2[0]);
+						if (skipPositions) {
+							result.add(docID, 0, 0);
+						} else {
+							readPositions(pos_file, Long.parseLong(tok2[1]), docID,
+										  doc_ID_strings.length, result);
 						}
 					}
 				}
@@ -322,7 +640,9 @@ public class FileIndex implements Index {
 			e.printStackTrace();
 		} finally {
 			try {
-				index_file.close();
+				if (index_file != null) index_file.close();
+				if (docs_file != null) docs_file.close();
+				if (pos_file != null) pos_file.close();
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -341,48 +661,243 @@ public class FileIndex implements Index {
 		return result;
     }
 	
+	/**
+	 *  Reads the positions of a document at @code{posRef} into the
+	 *  result, scored by tf-idf.
+	 */
+	private void readPositions(RandomAccessFile pos_file, long posRef, int docID, int df_t,
+							   PostingsList result) throws IOException {
+		pos_file.seek(posRef);
+		String poss_string = pos_file.readLine();
+		String[] pos_toks = poss_string.split("\\s+");
+		int tf_dt = pos_toks.length;
+		int N = totalNumberOfDocuments;
+		int len_d = docInfo.wordCount(docID);
+		double idf_t = Math.log(1.0*N/df_t);
+		double tf_idf_dt = 1.0 * tf_dt * idf_t / len_d;
+		for (String pos_tok : pos_toks) {
+			result.add(docID, tf_idf_dt, Integer.parseInt(pos_tok));
+		}
+	}
+	
+	/**
+	 *  The document frequency in an index line, which is the fourth
+	 *  field of a term and the third of a word pair, or 0 for a store
+	 *  written without it.
+	 */
+	private static int documentFrequency(String[] tokens, String prefix) {
+		int field = prefix.equals("store/") ? 3 : 2;
+		return tokens.length > field + 1 ? Integer.parseInt(tokens[field]) : 0;
+	}
+	
+	/**
+	 *  Reads the entries of the candidate documents from a docs line.
+	 *  The line is scanned byte by byte, and only the docIDs are
+	 *  decoded, so the entries of other documents cost no strings.
+	 *  The scan stops after the last candidate if the document
+	 *  frequency @code{df_t} is known, otherwise it counts the
+	 *  entries for it.
+	 */
+	private void readCandidates(RandomAccessFile docs_file, long doc_pos, int df_t,
+								PostingsList candidates, boolean skipPositions,
+								RandomAccessFile pos_file, PostingsList result) throws IOException {
+		docs_file.seek(doc_pos);
+		// Not closed here, that would close docs_file
+		InputStream in = new BufferedInputStream(Channels.newInputStream(docs_file.getChannel()), 1 << 16);
+		List<Integer> docIDs = new ArrayList<Integer>();
+		List<Long> posRefs = new ArrayList<Long>();
+		int entries = 0;
+		int c = in.read();
+		while (c != -1 && c != '\n' && c != '\r') {
+			if (c < '0' || c > '9') {
+				c = in.read();
+				continue;
+			}
+			int docID = 0;
+			while (c >= '0' && c <= '9') {
+				docID = 10*docID + (c - '0');
+				c = in.read();
+			}
+			boolean wanted = candidates.get(docID) != null;
+			long posRef = 0;
+			if (c == ':') c = in.read();
+			while (c >= '0' && c <= '9') {
+				if (wanted) posRef = 10*posRef + (c - '0');
+				c = in.read();
+			}
+			if ((++entries & 4095) == 0) CancellationToken.check();
+			if (wanted) {
+				docIDs.add(docID);
+				posRefs.add(posRef);
+				if (df_t > 0 && docIDs.size() == candidates.size()) break;
+			}
+		}
+		if (df_t == 0) df_t = entries;
+		for (int i = 0; i < docIDs.size(); i++) {
+			CancellationToken.check();
+			if (skipPositions) {
+				result.add(docIDs.get(i), 0, 0);
+			} else {
+				readPositions(pos_file, posRefs.get(i), docIDs.get(i), df_t, result);
+			}
+		}
+	}
+	
+    /**
+     *  Returns the champion list of a term (the highest scoring
+     *  documents, with precomputed tf-idf scores), or null if the
+     *  index was stored without champion lists.
+     */
+    public PostingsList getChampions(String token) {
+		
+		if (Query.isWildcard(token)) {
+			// Scored from the full lists of the expansions instead
+			return null;
+		}
+		
+		PostingsList result = new PostingsList();
+		
+		RandomAccessFile index_file = null;
+		RandomAccessFile champion_file = null;
+		
+		try {
+			index_file = new RandomAccessFile(new File("store/index"), "r");
+			
+			String line = extractLine(token, index_file);
+			String[] tokens = line.split("\\s+");
+			if (tokens.length > 2) {
+				champion_file = new RandomAccessFile(new File("store/champions"), "r");
+				champion_file.seek(Long.parseLong(tokens[2]));
+				String champions_string = champion_file.readLine().trim();
+				if (champions_string.length() > 0) {
+					for (String champion : champions_string.split("\\s+")) {
+						String[] tok2 = champion.split(":");
+						int docID = Integer.parseInt(tok2[0]);
+						double score = Double.parseDouble(tok2[1]);
+						result.add(new PostingsEntry(docID, score));
+					}
+				}
+			} else if (tokens.length > 1) {
+				// Term is indexed but the store predates champion lists
+				result = null;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				if (index_file != null) index_file.close();
+				if (champion_file != null) champion_file.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 *  Orders a ranked result list according to the ranking type.
+	 */
+	private List<PostingsEntry> rank(PostingsList results, int rankingType) {
+		List<PostingsEntry> sorted = new ArrayList<PostingsEntry>(results.toCollection());
+		if (rankingType == Index.PAGERANK && pagerankOrdered) {
+			// The postings are in docID order, which already is
+			// descending PageRank, so only the scores are needed.
+			if (pagerank != null) {
+				for (PostingsEntry entry : sorted) {
+					entry.score = pagerank.score(this, entry.docID);
+				}
+			}
+			return sorted;
+		}
+		Collections.sort(sorted, PostingsEntry.SCORE_COMPARATOR_ASCENDING);
+		if (pagerank != null) pagerank.rank(sorted, rankingType, this);
+		return sorted;
+	}
+	
     /**
      *  Searches the index for postings matching the query.
      */
     public Collection<PostingsEntry> search(Query query, int queryType, int rankingType, int structureType) {
 		// System.out.println("Searching for " + query.terms.peek() + " among " + index.size());
+		if (structureType == Index.SUBPHRASE && queryType != Index.INTERSECTION_QUERY) {
+			// Full phrase first, then ever shorter subphrases
+			return new SubphraseEvaluator(this, query.terms).evaluate(SubphraseEvaluator.MIN_RESULTS);
+		}
+		// Queries on bigram structure are looked up in the bigram
+		// index if there is one.
+		boolean useBigrams = hasBigrams && query.size() > 1
+			&& structureType == Index.BIGRAM;
+		List<String> keys = useBigrams ? query.bigrams() : query.terms;
+		// With the common terms fast path, common terms are only
+		// looked up in the documents found by the rare terms.
+		boolean fastPath = useCommonTerms(keys);
+		if (fastPath) keys = commonTermsLast(keys);
 		if (queryType == Index.INTERSECTION_QUERY) {
 			PostingsList results = null;
-			for (String term : query.terms) {
+			for (String key : keys) {
+				CancellationToken.check();
 				if (results == null) {
-					results = getPostings(term, true);
+					results = lookup(key, true, useBigrams);
+				} else if (fastPath && commonTerms.contains(key)) {
+					results = results.intersect(readPostings(key, true, "store/", results));
 				} else {
-					results = results.intersect(getPostings(term, true));
+					results = results.intersect(lookup(key, true, useBigrams));
 				}
 			}
 			if (results == null) return new ArrayList<PostingsEntry>();
 			return results.toCollection();
 		} else if (queryType == Index.PHRASE_QUERY) {
+			return new PhrasePlanner(phraseSource).evaluate(query.terms).toCollection();
+		} else if (queryType == Index.RANKED_QUERY) {
+			Map<String, Double> weights = query.weightsByTerm();
+			// The term weights are summed over repeats, so each term
+			// is scored once. Repeated bigrams count once per repeat.
+			Collection<String> scoredKeys = useBigrams ? keys : new LinkedHashSet<String>(keys);
 			PostingsList results = null;
-			int offset = -1;
-			for (String term : query.terms) {
-				offset++;
+			// Try the champion lists first
+			for (String key : scoredKeys) {
+				CancellationToken.check();
+				PostingsList champions = useBigrams ? null : getChampions(key);
+				if (champions == null) {
+					results = null;
+					break;
+				}
+				for (PostingsEntry entry : champions) {
+					entry.score *= weights.get(key);
+				}
 				if (results == null) {
-					results = getPostings(term, false);
+					results = champions;
+				} else if (fastPath && commonTerms.contains(key)) {
+					// Only boosts the documents already found
+					PostingsList boost = new PostingsList();
+					for (PostingsEntry entry : champions) {
+						if (results.get(entry.docID) != null) boost.add(entry);
+					}
+					results = results.union(boost);
 				} else {
-					results = results.intersect(getPostings(term, false), offset, offset);
+					results = results.union(champions);
 				}
 			}
-			if (results == null) return new ArrayList<PostingsEntry>();
-			return results.toCollection();
-		} else if (queryType == Index.RANKED_QUERY) {
-			PostingsList results = null;
-			for (String term : query.terms) {
-				if (results == null) {
-					results = getPostings(term, false);
-				} else {
-					results = results.union(getPostings(term, false));
+			if (results != null && results.size() >= MIN_CHAMPION_CANDIDATES) {
+				return rank(results, rankingType);
+			}
+			// Too few candidates, score the full postings lists
+			final boolean bigramKeys = useBigrams;
+			WeightedScorer scorer = new WeightedScorer(new WeightedScorer.Source() {
+				public PostingsList postings(String key, PostingsList candidates) {
+					if (bigramKeys) return lookup(key, false, true);
+					return readPostings(key, false, "store/", candidates);
+				}
+				public int numberOfDocuments() {
+					return totalNumberOfDocuments;
 				}
+			});
+			for (String key : scoredKeys) {
+				Double weight = weights.get(key);
+				scorer.add(key, weight == null ? 1 : weight, fastPath && commonTerms.contains(key));
 			}
-			if (results == null) return new ArrayList<PostingsEntry>();
-			List<PostingsEntry> sorted = new ArrayList<PostingsEntry>(results.toCollection());
-			Collections.sort(sorted, PostingsEntry.SCORE_COMPARATOR_ASCENDING);
-			return sorted;
+			return rank(scorer.score(), rankingType);
 		}
 		
 		return null;
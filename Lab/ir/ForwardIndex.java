@@ -0,0 +1,315 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package ir;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ *   The terms of each document with their frequencies, for relevance
+ *   feedback. Terms are numbered in dictionary order, and the vector
+ *   of a document is a list of (term number, tf) pairs sorted by term
+ *   number. On file (store/forward, big endian) the layout is
+ *
+ *   <pre>
+ *   int          MAGIC
+ *   int          N (documents), slots (largest docID + 1), T (terms)
+ *   long[slots+1] offsets of the vectors in the vector bytes
+ *   int[T]       document frequencies
+ *   int[T+1]     offsets of the terms in the term bytes
+ *   byte[]       UTF-8 terms back to back
+ *   byte[]       vectors: the number of pairs, then for each pair the
+ *                gap to the previous term number and the tf, all as
+ *                variable-length ints (7 bits per byte)
+ *   </pre>
+ *
+ *   The file is memory mapped and vectors are decoded on demand. It
+ *   is mapped as a single buffer, so it may be at most MAX_FILE_SIZE
+ *   bytes; write() refuses to write a larger one.
+ */
+public class ForwardIndex {
+
+	public static final int MAGIC = 0x46574431;
+
+	/**  Where FileIndex looks for the forward index. */
+	public static final String DEFAULT_FILE = "store/forward";
+
+	/**  Largest file that can be mapped as one buffer. */
+	public static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final int numberOfDocs;
+	private final String[] terms;
+	private final int[] df;
+
+	/**  In memory: the pairs of each document, interleaved. */
+	private HashMap<Integer, int[]> vectors = null;
+
+	/**  On file: the mapped file and where its sections start. */
+	private ByteBuffer buffer = null;
+	private int slots;
+	private int offsetBase;
+	private int vectorBase;
+
+	/**
+	 *  Builds the forward index of an inverted index in memory.
+	 */
+	public ForwardIndex(TreeMap<String, PostingsList> index, int numberOfDocs) {
+		this.numberOfDocs = numberOfDocs;
+		terms = index.keySet().toArray(new String[index.size()]);
+		df = new int[terms.length];
+		HashMap<Integer, Integer> sizes = new HashMap<Integer, Integer>();
+		int termID = 0;
+		for (PostingsList postings : index.values()) {
+			df[termID++] = postings.size();
+			for (PostingsEntry entry : postings) {
+				Integer size = sizes.get(entry.docID);
+				sizes.put(entry.docID, size == null ? 1 : size + 1);
+			}
+		}
+		vectors = new HashMap<Integer, int[]>();
+		HashMap<Integer, Integer> fill = new HashMap<Integer, Integer>();
+		for (Map.Entry<Integer, Integer> entry : sizes.entrySet()) {
+			vectors.put(entry.getKey(), new int[2*entry.getValue()]);
+			fill.put(entry.getKey(), 0);
+		}
+		// Terms are visited in order, so every vector comes out sorted
+		termID = 0;
+		for (PostingsList postings : index.values()) {
+			for (PostingsEntry entry : postings) {
+				int[] vector = vectors.get(entry.docID);
+				int k = fill.get(entry.docID);
+				vector[k] = termID;
+				vector[k+1] = entry.getTermFrequency();
+				fill.put(entry.docID, k+2);
+			}
+			termID++;
+		}
+	}
+
+	private ForwardIndex(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a forward index file");
+		}
+		numberOfDocs = buffer.getInt(4);
+		slots = buffer.getInt(8);
+		int t = buffer.getInt(12);
+		offsetBase = 16;
+		int dfBase = offsetBase + 8*(slots+1);
+		int termOffsetBase = dfBase + 4*t;
+		int termBase = termOffsetBase + 4*(t+1);
+		terms = new String[t];
+		df = new int[t];
+		byte[] bytes = new byte[buffer.getInt(termOffsetBase + 4*t)];
+		buffer.position(termBase);
+		buffer.get(bytes);
+		for (int i = 0; i < t; i++) {
+			df[i] = buffer.getInt(dfBase + 4*i);
+			int start = buffer.getInt(termOffsetBase + 4*i);
+			int end = buffer.getInt(termOffsetBase + 4*(i+1));
+			terms[i] = new String(bytes, start, end - start, UTF8);
+		}
+		vectorBase = termBase + bytes.length;
+	}
+
+	/**
+	 *  Maps the given forward index file, or returns null if it
+	 *  does not exist or cannot be read.
+	 */
+	public static ForwardIndex open(String filename) {
+		File f = new File(filename);
+		if (!f.exists()) return null;
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(f, "r");
+			FileChannel channel = file.getChannel();
+			if (channel.size() > MAX_FILE_SIZE) {
+				throw new IOException(filename + " is larger than " + MAX_FILE_SIZE + " bytes and cannot be mapped");
+			}
+			return new ForwardIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} catch (IOException e) {
+			System.err.println(e);
+			return null;
+		} finally {
+			try {
+				if (file != null) file.close();
+			} catch (IOException e) {
+				System.err.println(e);
+			}
+		}
+	}
+
+	/**
+	 *  Writes an in-memory forward index to file. The vector offsets
+	 *  are computed first, so that the vectors can be written straight
+	 *  to the file after them.
+	 */
+	public void write(String filename) throws IOException {
+		int maxDocID = -1;
+		for (int docID : vectors.keySet()) {
+			maxDocID = Math.max(maxDocID, docID);
+		}
+		int slots = maxDocID + 1;
+		long[] offsets = new long[slots+1];
+		long size = 0;
+		for (int docID = 0; docID < slots; docID++) {
+			offsets[docID] = size;
+			int[] vector = vectors.get(docID);
+			if (vector == null) continue;
+			size += varIntLength(vector.length / 2);
+			int previous = 0;
+			for (int k = 0; k < vector.length; k += 2) {
+				size += varIntLength(vector[k] - previous) + varIntLength(vector[k+1]);
+				previous = vector[k];
+			}
+		}
+		offsets[slots] = size;
+		byte[][] bytes = new byte[terms.length][];
+		long header = 16 + 8L*(slots+1) + 4L*terms.length + 4L*(terms.length+1);
+		for (int i = 0; i < terms.length; i++) {
+			bytes[i] = terms[i].getBytes(UTF8);
+			header += bytes[i].length;
+		}
+		if (header + size > MAX_FILE_SIZE) {
+			throw new IOException("The forward index would be " + (header + size)
+								  + " bytes, more than the " + MAX_FILE_SIZE + " that can be mapped");
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(numberOfDocs);
+			out.writeInt(slots);
+			out.writeInt(terms.length);
+			for (long offset : offsets) {
+				out.writeLong(offset);
+			}
+			for (int f : df) {
+				out.writeInt(f);
+			}
+			int offset = 0;
+			for (int i = 0; i < terms.length; i++) {
+				out.writeInt(offset);
+				offset += bytes[i].length;
+			}
+			out.writeInt(offset);
+			for (byte[] b : bytes) {
+				out.write(b);
+			}
+			for (int docID = 0; docID < slots; docID++) {
+				int[] vector = vectors.get(docID);
+				if (vector == null) continue;
+				writeVarInt(out, vector.length / 2);
+				int previous = 0;
+				for (int k = 0; k < vector.length; k += 2) {
+					writeVarInt(out, vector[k] - previous);
+					writeVarInt(out, vector[k+1]);
+					previous = vector[k];
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int varIntLength(int value) {
+		int length = 1;
+		while ((value & ~0x7f) != 0) {
+			length++;
+			value >>>= 7;
+		}
+		return length;
+	}
+
+	private int readVarInt() {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	/**
+	 *  The (term number, tf) pairs of a document, interleaved, or
+	 *  null if the document is unknown.
+	 */
+	private int[] pairs(int docID) {
+		if (vectors != null) return vectors.get(docID);
+		if (docID < 0 || docID >= slots) return null;
+		long start = buffer.getLong(offsetBase + 8*docID);
+		long end = buffer.getLong(offsetBase + 8*(docID+1));
+		if (start == end) return null;
+		// The file is at most MAX_FILE_SIZE bytes, so this fits an int
+		buffer.position((int) (vectorBase + start));
+		int[] vector = new int[2*readVarInt()];
+		int termID = 0;
+		for (int k = 0; k < vector.length; k += 2) {
+			termID += readVarInt();
+			vector[k] = termID;
+			vector[k+1] = readVarInt();
+		}
+		return vector;
+	}
+
+	/**
+	 *  The terms of a document with their frequencies, or null if
+	 *  the document is unknown.
+	 */
+	public synchronized Map<String, Integer> termFrequencies(int docID) {
+		int[] vector = pairs(docID);
+		if (vector == null) return null;
+		Map<String, Integer> tf = new HashMap<String, Integer>();
+		for (int k = 0; k < vector.length; k += 2) {
+			tf.put(terms[vector[k]], vector[k+1]);
+		}
+		return tf;
+	}
+
+	/**
+	 *  The tf-idf weights of the terms of a document, with tf
+	 *  divided by the document length as in ranked retrieval, or
+	 *  null if the document is unknown.
+	 */
+	public synchronized Map<String, Double> termWeights(int docID) {
+		int[] vector = pairs(docID);
+		if (vector == null) return null;
+		int length = 0;
+		for (int k = 0; k < vector.length; k += 2) {
+			length += vector[k+1];
+		}
+		Map<String, Double> weights = new HashMap<String, Double>();
+		for (int k = 0; k < vector.length; k += 2) {
+			double idf = Math.log(1.0 * numberOfDocs / df[vector[k]]);
+			weights.put(terms[vector[k]], vector[k+1] * idf / length);
+		}
+		return weights;
+	}
+}
@@ -10,27 +10,120 @@
 package ir;
 
 import java.io.BufferedWriter;
-import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.TreeMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.PriorityQueue;
 
 /**
  *   Implements an inverted index as a Hashtable from words to PostingsLists.
  */
 public class HashedIndex implements Index {
 	
+	/**
+	 *  Number of top-scoring documents kept in the champion list
+	 *  of each term.
+	 */
+	public static final int CHAMPION_LIST_SIZE = 50;
+	
+	/**
+	 *  Number of most frequent words whose following words are
+	 *  indexed in the next-word index.
+	 */
+	public static final int NEXT_WORD_FIRST_WORDS = 100;
+	
+	/**
+	 *  Terms in at least this share of the documents are listed as
+	 *  common terms, for the common terms fast path of FileIndex.
+	 */
+	public static final double COMMON_TERM_DF_RATIO = 0.2;
+	
+	/**
+	 *  Weight of PageRank when selecting champions, if precomputed
+	 *  PageRank scores are available. The stored champion scores
+	 *  are still plain tf-idf.
+	 */
+	public static final double CHAMPION_PAGERANK_WEIGHT = 0.3;
+	
     /** The index as a hashtable. */
     private TreeMap<String, PostingsList> index = new TreeMap<String,PostingsList>();
 	private TreeMap<String, Integer> wordCounts = new TreeMap<String, Integer>();
+	private PageRankScores pagerank = PageRankScores.open(PageRankScores.DEFAULT_FILE);
+	
+	/**  Renumber documents by descending static score before marshalling. */
+	private boolean staticRankOrder = false;
+	
+	/**  Old to new docIDs after renumbering, or null. */
+	private int[] docIDMap = null;
+	
+	/**
+	 *  Postings of the bigrams "a b" (keyed by Query.bigram) with the
+	 *  positions of their first word, or null if not built.
+	 */
+	private TreeMap<String, PostingsList> bigrams = null;
+	
+	/**  Term vectors of the documents, built when first needed. */
+	private ForwardIndex forward = null;
+	
+	/**  K-grams of the dictionary for wildcards, built when first needed. */
+	private KGramIndex kgrams = null;
+	
+	/**  Spelling suggestions from the dictionary, built when first needed. */
+	private SpellingCorrector spelling = null;
+	
+	/**  The token inserted last, to form bigrams with the next one. */
+	private String lastToken = null;
+	private int lastDocID = -1;
+	private int lastOffset = -1;
+	
+	/**  Build a next-word index for the most frequent first words. */
+	private boolean nextWords = false;
+	
+	/**  The tokens of the documents, for snippets, or null. */
+	private DocumentStore documents = null;
+	
+	/**
+	 *  Selects whether a bigram index is built alongside the
+	 *  unigrams. Must be called before any token is inserted.
+	 */
+	public void setBigrams(boolean build) {
+		bigrams = build ? new TreeMap<String, PostingsList>() : null;
+	}
+	
+	/**
+	 *  Selects whether the documents are kept in a compressed
+	 *  document store, written to store/ while indexing, so that
+	 *  results can be shown with snippets. Must be called before any
+	 *  token is inserted.
+	 */
+	public void setDocumentStore(boolean build) {
+		documents = null;
+		if (!build) return;
+		try {
+			Store.prepareStaging();
+			documents = DocumentStore.create(Store.staging(DocumentStore.DEFAULT_FILE));
+		} catch (IOException e) {
+			System.err.println(e);
+		}
+	}
+	
+	/**
+	 *  Selects whether a next-word index is written with the index.
+	 */
+	public void setNextWords(boolean build) {
+		nextWords = build;
+	}
 	
     /**
      *  Inserts this token in the index.
@@ -42,9 +135,36 @@ public class HashedIndex implements Index {
 		}
 		// index.get(token).add(new PostingsEntry(docID, 0));
 		index.get(token).add(docID, 0, offset);
+		forward = null;
+		kgrams = null;
+		spelling = null;
 		if (!wordCounts.containsKey("" + docID))
 			wordCounts.put("" + docID, 0);
 		wordCounts.put("" + docID, wordCounts.get("" + docID) + 1);
+		if (bigrams != null) {
+			if (docID == lastDocID && offset == lastOffset + 1) {
+				String bigram = Query.bigram(lastToken, token);
+				if (!bigrams.containsKey(bigram)) {
+					bigrams.put(bigram, new PostingsList());
+				}
+				bigrams.get(bigram).add(docID, 0, lastOffset);
+			}
+			lastToken = token;
+			lastDocID = docID;
+			lastOffset = offset;
+		}
+		if (documents != null && !documents.isWritable()) {
+			// Saved with an earlier dump, and now out of date
+			documents = null;
+		}
+		if (documents != null) {
+			try {
+				documents.add(docID, token);
+			} catch (IOException e) {
+				System.err.println(e);
+				documents = null;
+			}
+		}
     }
 	
 	/**
@@ -67,19 +187,12 @@ public class HashedIndex implements Index {
      */
     public PostingsList getPostings( String token ) {
 		PostingsList result = null;
-		if (index.containsKey(token))
+		if (Query.isWildcard(token))
+			result = PostingsList.union(expand(token));
+		else if (index.containsKey(token))
 			result = index.get(token);
 		else
 			result = new PostingsList();
-		for (PostingsEntry entry : result) {
-			System.out.print(entry.docID + ": ");
-			Iterator<Integer> pos_iter = entry.getPositionIterator();
-			while (pos_iter.hasNext()) {
-				int pos = pos_iter.next();
-				System.out.print("" + pos + " ");
-			}
-			System.out.println();
-		}
 		return result;
     }
 	
@@ -88,48 +201,505 @@ public class HashedIndex implements Index {
      */
     public Collection<PostingsEntry> search(Query query, int queryType, int rankingType, int structureType) {
 		// System.out.println("Searching for " + query.terms.peek() + " among " + index.size());
+		if (structureType == Index.SUBPHRASE && queryType != Index.INTERSECTION_QUERY) {
+			// Full phrase first, then ever shorter subphrases
+			return new SubphraseEvaluator(this, query.terms).evaluate(SubphraseEvaluator.MIN_RESULTS);
+		}
+		// Queries on bigram structure are looked up in the bigram
+		// index if there is one.
+		boolean useBigrams = bigrams != null && query.size() > 1
+			&& structureType == Index.BIGRAM;
+		List<String> keys = useBigrams ? query.bigrams() : query.terms;
 		if (queryType == Index.INTERSECTION_QUERY) {
-			PostingsList results = null;
-			for (String term : query.terms) {
-				if (results == null) {
-					results = getPostings(term);
-				} else {
-					results = results.intersect(getPostings(term));
-				}
+			if (keys.size() == 1) {
+				return lookup(keys.get(0), useBigrams).toCollection();
 			}
-			if (results == null) return new ArrayList<PostingsEntry>();
-			return results.toCollection();
-		} else if (queryType == Index.PHRASE_QUERY) {
-			PostingsList results = null;
-			int offset = -1;
-			for (String term : query.terms) {
-				offset++;
-				if (results == null) {
-					results = getPostings(term);
+			// An AND of the docID sets of the keys, where a wildcard
+			// is the OR of the sets of its expansions
+			DocIDSet docs = null;
+			List<PostingsList> lists = new ArrayList<PostingsList>();
+			for (String key : keys) {
+				CancellationToken.check();
+				List<PostingsList> keyLists = new ArrayList<PostingsList>();
+				if (!useBigrams && Query.isWildcard(key)) {
+					keyLists.addAll(expand(key));
 				} else {
-					results = results.intersect(getPostings(term), offset, offset);
+					PostingsList postings = useBigrams ? bigrams.get(key) : index.get(key);
+					if (postings != null) keyLists.add(postings);
+				}
+				List<DocIDSet> sets = new ArrayList<DocIDSet>();
+				for (PostingsList postings : keyLists) {
+					sets.add(postings.docIDs());
 				}
+				docs = docs == null ? DocIDSet.or(sets) : docs.and(DocIDSet.or(sets));
+				lists.addAll(keyLists);
+				if (docs.isEmpty()) break;
 			}
-			if (results == null) return new ArrayList<PostingsEntry>();
-			return results.toCollection();
+			if (docs == null) return new ArrayList<PostingsEntry>();
+			return PostingsList.select(docs, lists).toCollection();
+		} else if (queryType == Index.PHRASE_QUERY) {
+			return new PhrasePlanner(phraseSource).evaluate(query.terms).toCollection();
 		} else if (queryType == Index.RANKED_QUERY) {
-			PostingsList results = null;
-			for (String term : query.terms) {
-				if (results == null) {
-					results = getPostings(term);
-				} else {
-					results = results.intersect(getPostings(term));
+			final boolean bigramKeys = useBigrams;
+			WeightedScorer scorer = new WeightedScorer(new WeightedScorer.Source() {
+				public PostingsList postings(String key, PostingsList candidates) {
+					if (bigramKeys) return scored(lookup(key, true));
+					if (Query.isWildcard(key)) {
+						// Each expansion scored by its own idf
+						List<PostingsList> lists = new ArrayList<PostingsList>();
+						for (PostingsList postings : expand(key)) {
+							lists.add(scored(postings));
+						}
+						return PostingsList.union(lists);
+					}
+					PostingsList postings = index.get(key);
+					return postings == null ? null : scored(postings);
+				}
+				public int numberOfDocuments() {
+					return docIDs.size();
 				}
+			});
+			if (useBigrams) {
+				for (String key : keys) scorer.add(key, 1);
+			} else {
+				scorer.addAll(query);
 			}
-			if (results == null) return new ArrayList<PostingsEntry>();
-			List<PostingsEntry> sorted = new ArrayList<PostingsEntry>(results.toCollection());
+			List<PostingsEntry> sorted = new ArrayList<PostingsEntry>(scorer.score().toCollection());
 			Collections.sort(sorted, PostingsEntry.SCORE_COMPARATOR_ASCENDING);
+			if (pagerank != null) pagerank.rank(sorted, rankingType, this);
 			return sorted;
 		}
 		
 		return null;
     }
 	
+	/**
+	 *  Postings for the phrase planner: the in-memory terms and
+	 *  bigrams, costed by their number of positions.
+	 */
+	private final PhrasePlanner.Source phraseSource = new PhrasePlanner.Source() {
+		public long cost(int kind, String key) {
+			if (kind == PhrasePlanner.TERM && Query.isWildcard(key)) {
+				long cost = 0;
+				for (PostingsList postings : expand(key)) {
+					cost += postings.collectionFrequency();
+				}
+				return cost;
+			} else if (kind == PhrasePlanner.TERM) {
+				PostingsList postings = index.get(key);
+				return postings == null ? 0 : postings.collectionFrequency();
+			} else if (kind == PhrasePlanner.BIGRAM && bigrams != null) {
+				PostingsList postings = bigrams.get(key);
+				return postings == null ? 0 : postings.collectionFrequency();
+			}
+			return -1;
+		}
+		public PostingsList fetch(int kind, String key, boolean skipPositions, PostingsList candidates) {
+			return lookup(key, kind == PhrasePlanner.BIGRAM);
+		}
+	};
+	
+	/**
+	 *  Returns the tf-idf weights of the terms of a document, or
+	 *  null if there is no such document.
+	 */
+	public Map<String, Double> getTermWeights(int docID) {
+		if (forward == null) {
+			forward = new ForwardIndex(index, docIDs.size());
+		}
+		return forward.termWeights(docID);
+	}
+	
+	/**
+	 *  Returns the query with its unknown terms replaced by the
+	 *  closest terms in the dictionary, or null if there are none.
+	 */
+	public Query getSpellingSuggestion(Query query) {
+		if (spelling == null) {
+			spelling = spellingCorrector();
+		}
+		return spelling.correct(query);
+	}
+	
+	private SpellingCorrector spellingCorrector() {
+		String[] terms = index.keySet().toArray(new String[index.size()]);
+		int[] df = new int[terms.length];
+		int termID = 0;
+		for (PostingsList postings : index.values()) {
+			df[termID++] = postings.size();
+		}
+		return new SpellingCorrector(terms, df);
+	}
+	
+	/**
+	 *  Returns a snippet of a document with the query terms marked,
+	 *  or null if there is no document store.
+	 */
+	public String getSnippet(int docID, Query query) {
+		if (documents == null) return null;
+		List<Integer> positions = new ArrayList<Integer>();
+		for (String term : query.terms) {
+			List<PostingsList> lists = Query.isWildcard(term)
+				? expand(term) : Collections.singletonList(index.get(term));
+			for (PostingsList postings : lists) {
+				PostingsEntry entry = postings == null ? null : postings.get(docID);
+				if (entry == null) continue;
+				Iterator<Integer> pos_iter = entry.getPositionIterator();
+				while (pos_iter.hasNext()) {
+					positions.add(pos_iter.next());
+				}
+			}
+		}
+		try {
+			String[] tokens = documents.tokens(docID);
+			return tokens == null ? null : DocumentStore.snippet(tokens, positions);
+		} catch (IOException e) {
+			System.err.println(e);
+			return null;
+		}
+	}
+	
+	/**
+	 *  The postings of the terms matching a wildcard pattern.
+	 */
+	private List<PostingsList> expand(String pattern) {
+		if (kgrams == null) {
+			kgrams = new KGramIndex(index);
+		}
+		List<PostingsList> lists = new ArrayList<PostingsList>();
+		for (int termID : kgrams.expand(pattern)) {
+			lists.add(index.get(kgrams.term(termID)));
+		}
+		return lists;
+	}
+	
+	/**
+	 *  A copy of the postings scored by tf-idf, with tf divided by
+	 *  the document length.
+	 */
+	private PostingsList scored(PostingsList postings) {
+		PostingsList result = new PostingsList();
+		double idf_t = Math.log(1.0*docIDs.size()/Math.max(1, postings.size()));
+		for (PostingsEntry entry : postings) {
+			result.add(new PostingsEntry(entry.docID,
+				1.0 * entry.getTermFrequency() * idf_t / wordCounts.get("" + entry.docID)));
+		}
+		return result;
+	}
+	
+	/**
+	 *  Returns the postings of a term, or of a bigram key if
+	 *  @code{bigram} is set.
+	 */
+	private PostingsList lookup(String key, boolean bigram) {
+		if (!bigram) return getPostings(key);
+		PostingsList result = bigrams.get(key);
+		return result != null ? result : new PostingsList();
+	}
+	
+	/**
+	 *  Builds the champion list of a term: the CHAMPION_LIST_SIZE
+	 *  documents with the highest tf-idf score, optionally blended
+	 *  with PageRank, ordered by docID.
+	 */
+	private PostingsList championList(PostingsList postings) {
+		// A scored copy, so that the scores of the index are untouched
+		PostingsList tfIdf = scored(postings);
+		double maxTfIdf = 0;
+		for (PostingsEntry entry : tfIdf) {
+			maxTfIdf = Math.max(maxTfIdf, entry.score);
+		}
+		PriorityQueue<PostingsEntry> best = new PriorityQueue<PostingsEntry>(
+			CHAMPION_LIST_SIZE + 1, Collections.reverseOrder());
+		for (PostingsEntry entry : tfIdf) {
+			double key = entry.score;
+			if (pagerank != null && maxTfIdf > 0 && pagerank.maxScore() > 0) {
+				key = (1 - CHAMPION_PAGERANK_WEIGHT) * entry.score / maxTfIdf
+					+ CHAMPION_PAGERANK_WEIGHT * pagerank.score(this, entry.docID) / pagerank.maxScore();
+			}
+			best.add(new PostingsEntry(entry.docID, key));
+			if (best.size() > CHAMPION_LIST_SIZE) {
+				// Drop the lowest scoring document
+				best.poll();
+			}
+		}
+		PostingsList champions = new PostingsList();
+		for (PostingsEntry entry : best) {
+			champions.add(new PostingsEntry(entry.docID, tfIdf.get(entry.docID).score));
+		}
+		return champions;
+	}
+	
+	/**
+	 *  Selects whether marshal_dump should renumber the documents
+	 *  so that the highest static score gets the lowest docID.
+	 */
+	public void setStaticRankOrder(boolean staticRankOrder) {
+		this.staticRankOrder = staticRankOrder;
+	}
+	
+	/**
+	 *  The name of the static score used for renumbering: PageRank
+	 *  if precomputed scores are available, otherwise the document
+	 *  length as a crude quality measure.
+	 */
+	private String staticScoreName() {
+		return pagerank != null ? "pagerank" : "length";
+	}
+	
+	/**
+	 *  Renumbers all documents by descending static score, so that
+	 *  postings lists (which are kept in docID order) list the best
+	 *  documents first.
+	 */
+	private void renumberByStaticRank() {
+		int maxDocID = -1;
+		for (String docID : docIDs.keySet()) {
+			maxDocID = Math.max(maxDocID, Integer.parseInt(docID));
+		}
+		final double[] staticScore = new double[maxDocID + 1];
+		List<Integer> order = new ArrayList<Integer>();
+		for (String docID : docIDs.keySet()) {
+			int d = Integer.parseInt(docID);
+			Integer length = wordCounts.get(docID);
+			if (pagerank != null) {
+				staticScore[d] = pagerank.score(this, d);
+			} else {
+				staticScore[d] = length == null ? 0 : length;
+			}
+			order.add(d);
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			public int compare(Integer d1, Integer d2) {
+				int comp = Double.compare(staticScore[d2], staticScore[d1]);
+				return comp != 0 ? comp : d1 - d2;
+			}
+		});
+		docIDMap = new int[maxDocID + 1];
+		Arrays.fill(docIDMap, -1);
+		for (int i = 0; i < order.size(); i++) {
+			docIDMap[order.get(i)] = i;
+		}
+		
+		renumber(index);
+		if (bigrams != null) renumber(bigrams);
+		if (documents != null) {
+			try {
+				documents.renumber(docIDMap);
+			} catch (IOException e) {
+				System.err.println(e);
+			}
+		}
+		
+		TreeMap<String, String> names = new TreeMap<String, String>(docIDs);
+		TreeMap<String, Integer> counts = new TreeMap<String, Integer>(wordCounts);
+		TreeMap<String, Integer> lengths = new TreeMap<String, Integer>(docLengths);
+		docIDs.clear();
+		wordCounts.clear();
+		docLengths.clear();
+		for (Map.Entry<String, String> entry : names.entrySet()) {
+			String docID = "" + docIDMap[Integer.parseInt(entry.getKey())];
+			docIDs.put(docID, entry.getValue());
+			if (counts.containsKey(entry.getKey()))
+				wordCounts.put(docID, counts.get(entry.getKey()));
+			if (lengths.containsKey(entry.getKey()))
+				docLengths.put(docID, lengths.get(entry.getKey()));
+		}
+	}
+	
+	/**
+	 *  Applies docIDMap to all postings lists of the map.
+	 */
+	private void renumber(TreeMap<String, PostingsList> postings) {
+		for (Map.Entry<String, PostingsList> entry : postings.entrySet()) {
+			PostingsList renumbered = new PostingsList();
+			for (PostingsEntry posting : entry.getValue()) {
+				posting.docID = docIDMap[posting.docID];
+				renumbered.add(posting);
+			}
+			entry.setValue(renumbered);
+		}
+	}
+	
+	/**
+	 *  Writes the bigram index in the same format as the unigram
+	 *  index, to store/bigram_index, store/bigram_docs and
+	 *  store/bigram_pos (without champion lists), if bigrams were
+	 *  built. Returns false if a file could not be written.
+	 */
+	private boolean marshalBigrams() {
+		if (bigrams == null) return true;
+		return marshalPairs(bigrams, Store.staging("store/bigram_"));
+	}
+	
+	/**
+	 *  Builds and writes the next-word index: the bigrams whose first
+	 *  word is one of the NEXT_WORD_FIRST_WORDS most frequent words,
+	 *  to store/nextword_*. These are the phrases for which merging
+	 *  positional postings is most expensive. Not needed, and not
+	 *  written, if the full bigram index is built. Returns false if a
+	 *  file could not be written.
+	 */
+	private boolean marshalNextWords() {
+		if (!nextWords || bigrams != null) return true;
+		
+		// The tokens of each document in order, from the positions
+		HashMap<Integer, String[]> docTokens = new HashMap<Integer, String[]>();
+		for (Map.Entry<String, PostingsList> entry : index.entrySet()) {
+			for (PostingsEntry posting : entry.getValue()) {
+				String[] tokens = docTokens.get(posting.docID);
+				if (tokens == null) {
+					tokens = new String[wordCounts.get("" + posting.docID)];
+					docTokens.put(posting.docID, tokens);
+				}
+				Iterator<Integer> pos_iter = posting.getPositionIterator();
+				while (pos_iter.hasNext()) {
+					tokens[pos_iter.next()] = entry.getKey();
+				}
+			}
+		}
+		
+		// The most frequent words
+		final HashMap<String, Integer> frequency = new HashMap<String, Integer>();
+		for (Map.Entry<String, PostingsList> entry : index.entrySet()) {
+			frequency.put(entry.getKey(), entry.getValue().collectionFrequency());
+		}
+		List<String> words = new ArrayList<String>(index.keySet());
+		Collections.sort(words, new Comparator<String>() {
+			public int compare(String w1, String w2) {
+				return frequency.get(w2) - frequency.get(w1);
+			}
+		});
+		words = words.subList(0, Math.min(NEXT_WORD_FIRST_WORDS, words.size()));
+		
+		TreeMap<String, PostingsList> pairs = new TreeMap<String, PostingsList>();
+		for (String word : words) {
+			for (PostingsEntry posting : index.get(word)) {
+				String[] tokens = docTokens.get(posting.docID);
+				Iterator<Integer> pos_iter = posting.getPositionIterator();
+				while (pos_iter.hasNext()) {
+					int pos = pos_iter.next();
+					if (pos + 1 < tokens.length && tokens[pos + 1] != null) {
+						String pair = Query.bigram(word, tokens[pos + 1]);
+						if (!pairs.containsKey(pair)) {
+							pairs.put(pair, new PostingsList());
+						}
+						pairs.get(pair).add(posting.docID, 0, pos);
+					}
+				}
+			}
+		}
+		boolean complete = marshalPairs(pairs, Store.staging("store/nextword_"));
+		
+		BufferedWriter words_file = null;
+		try {
+			words_file = new BufferedWriter(new FileWriter(Store.staging("store/nextword_words"), false));
+			for (String word : words) {
+				words_file.write(word + "\n");
+			}
+		} catch (IOException e) {
+			System.err.println(e);
+			complete = false;
+		} finally {
+			if(words_file != null){
+				try {
+					words_file.close();
+				} catch (IOException e) {
+					System.err.println(e);
+					complete = false;
+				}
+			}
+		}
+		return complete;
+	}
+	
+	/**
+	 *  Writes the terms found in at least COMMON_TERM_DF_RATIO of
+	 *  the documents, with their document frequency, to
+	 *  store/common_terms. Returns false if it could not be written.
+	 */
+	private boolean marshalCommonTerms() {
+		boolean complete = true;
+		BufferedWriter terms_file = null;
+		try {
+			terms_file = new BufferedWriter(new FileWriter(Store.staging("store/common_terms"), false));
+			for (Map.Entry<String, PostingsList> entry : index.entrySet()) {
+				int df = entry.getValue().size();
+				if (df >= COMMON_TERM_DF_RATIO * docIDs.size()) {
+					terms_file.write(entry.getKey() + " " + df + "\n");
+				}
+			}
+		} catch (IOException e) {
+			System.err.println(e);
+			complete = false;
+		} finally {
+			if(terms_file != null){
+				try {
+					terms_file.close();
+				} catch (IOException e) {
+					System.err.println(e);
+					complete = false;
+				}
+			}
+		}
+		return complete;
+	}
+	
+	/**
+	 *  Writes word pair postings like the unigram index, but without
+	 *  champion lists, to the index, docs and pos files whose names
+	 *  start with @code{prefix}. Index lines are "key docPointer df cf".
+	 *  Returns false if a file could not be written.
+	 */
+	private boolean marshalPairs(TreeMap<String, PostingsList> pairs, String prefix) {
+		boolean complete = true;
+		BufferedWriter index_file = null;
+		ChannelWriter doc_file = null;
+		ChannelWriter pos_file = null;
+		try {
+			index_file = new BufferedWriter(new FileWriter(prefix + "index", false));
+			doc_file = new ChannelWriter(prefix + "docs", false);
+			pos_file = new ChannelWriter(prefix + "pos", true);
+			for (Map.Entry<String, PostingsList> entry : pairs.entrySet()) {
+				PostingsList postings = entry.getValue();
+				index_file.write(entry.getKey() + " " + doc_file.position()
+					+ " " + postings.size() + " " + postings.collectionFrequency() + "\n");
+				postings.marshalDump(doc_file, pos_file);
+			}
+		} catch (IOException e) {
+			System.err.println(e);
+			complete = false;
+		} finally {
+			// Each file is closed even if another fails; a background
+			// writer reports its write errors only here
+			if (index_file != null) {
+				try {
+					index_file.close();
+				} catch (IOException e) {
+					System.err.println(e);
+					complete = false;
+				}
+			}
+			if (doc_file != null) {
+				try {
+					doc_file.close();
+				} catch (IOException e) {
+					System.err.println(e);
+					complete = false;
+				}
+			}
+			if (pos_file != null) {
+				try {
+					pos_file.close();
+				} catch (IOException e) {
+					System.err.println(e);
+					complete = false;
+				}
+			}
+		}
+		return complete;
+	}
+	
     /**
      *  Marshal the index to file.
      */
@@ -137,31 +707,52 @@ public class HashedIndex implements Index {
 		
 		// TreeMap<String, Integer> dict = new TreeMap<String, Integer>();
 		
-		File dir = new File("store");
-		dir.mkdir();
+		// Everything is written to store.tmp/ and committed at the
+		// end, so that a failed dump leaves the old store intact
+		long start_time = System.nanoTime();
+		try {
+			if (documents != null && documents.isWritable()) {
+				Store.prepareStaging(DocumentStore.DEFAULT_FILE);
+			} else {
+				Store.prepareStaging();
+				if (documents != null) {
+					// Committed by an earlier dump
+					Files.copy(Paths.get(DocumentStore.DEFAULT_FILE),
+						Paths.get(Store.staging(DocumentStore.DEFAULT_FILE)));
+				}
+			}
+		} catch (IOException e) {
+			System.err.println(e);
+			return;
+		}
+		boolean complete = true;
+		
+		if (staticRankOrder && docIDMap == null) {
+			renumberByStaticRank();
+		}
 		
 		// /*
 		BufferedWriter index_file = null;
-		RandomAccessFile doc_file = null;
-		RandomAccessFile pos_file = null;
+		ChannelWriter doc_file = null;
+		ChannelWriter pos_file = null;
+		ChannelWriter champion_file = null;
 		try {
-			index_file = new BufferedWriter(new FileWriter("store/index", false));
-			doc_file = new RandomAccessFile(new File("store/docs"), "rw");
-			pos_file = new RandomAccessFile(new File("store/pos"),	"rw");
+			index_file = new BufferedWriter(new FileWriter(Store.staging("store/index"), false));
+			// The positions are the bulk of the data, so they get a
+			// writer thread of their own.
+			doc_file = new ChannelWriter(Store.staging("store/docs"), false);
+			pos_file = new ChannelWriter(Store.staging("store/pos"), true);
+			champion_file = new ChannelWriter(Store.staging("store/champions"), false);
 			
 			// int offset = 0;
-			int iter = 0;
 			for (Map.Entry<String, PostingsList> entry : index.entrySet()) {
-				iter++;
-				if (iter % 1000 == 0) {
-					System.out.println("Marshalling posting for " + entry.getKey() + " to file");
-					System.out.println("" + (int)(1000.0*iter/index.size()) / 10.0 + "% done");
-				}
-				
-				index_file.write(entry.getKey() + " " + doc_file.getFilePointer() + "\n");
+				index_file.write(entry.getKey() + " " + doc_file.position()
+					+ " " + champion_file.position()
+					+ " " + entry.getValue().size() + " " + entry.getValue().collectionFrequency() + "\n");
 				// offset += 1;
 				
 				entry.getValue().marshalDump(doc_file, pos_file);
+				championList(entry.getValue()).marshalScores(champion_file);
 				
 				// dict.put(token, offset);
 			}
@@ -173,12 +764,14 @@ public class HashedIndex implements Index {
 			
 		} catch (IOException e) {
 			System.err.println(e);
+			complete = false;
 		} finally {
 			if(index_file != null){
 				try {
 					index_file.close();
 				} catch (IOException e) {
 					System.err.println(e);
+					complete = false;
 				}
 			}
 			if(doc_file != null){
@@ -186,13 +779,53 @@ public class HashedIndex implements Index {
 					doc_file.close();
 				} catch (IOException e) {
 					System.err.println(e);
+					complete = false;
+				}
+			}
+			if(pos_file != null){
+				try {
+					pos_file.close();
+				} catch (IOException e) {
+					System.err.println(e);
+					complete = false;
+				}
+			}
+			if(champion_file != null){
+				try {
+					champion_file.close();
+				} catch (IOException e) {
+					System.err.println(e);
+					complete = false;
 				}
 			}
 		}
 		
+		if (!marshalBigrams()) complete = false;
+		if (!marshalNextWords()) complete = false;
+		if (!marshalCommonTerms()) complete = false;
+		
+		try {
+			new ForwardIndex(index, docIDs.size()).write(Store.staging(ForwardIndex.DEFAULT_FILE));
+			new KGramIndex(index).write(Store.staging(KGramIndex.DEFAULT_FILE));
+			spellingCorrector().write(Store.staging(SpellingCorrector.DEFAULT_FILE));
+			if (documents != null) {
+				documents.writeIndex(Store.staging(DocumentStore.DEFAULT_INDEX_FILE));
+			}
+		} catch (IOException e) {
+			System.err.println(e);
+			complete = false;
+		}
+		
+		try {
+			DocumentMetadata.write(Store.staging(DocumentMetadata.DEFAULT_FILE), docIDs, wordCounts);
+		} catch (IOException e) {
+			System.err.println(e);
+			complete = false;
+		}
+		
 		BufferedWriter doc_info_file = null;
 		try {
-			doc_info_file = new BufferedWriter(new FileWriter("store/doc_info", false));
+			doc_info_file = new BufferedWriter(new FileWriter(Store.staging("store/doc_info"), false));
 			for (Map.Entry<String, String> entry : docIDs.entrySet()) {
 				doc_info_file.write(entry.getKey());
 				doc_info_file.write(" " + entry.getValue());
@@ -201,17 +834,63 @@ public class HashedIndex implements Index {
 			}
 		} catch (IOException e) {
 			System.err.println(e);
+			complete = false;
 		} finally {
 			if(doc_info_file != null){
 				try {
 					doc_info_file.close();
 				} catch (IOException e) {
 					System.err.println(e);
+					complete = false;
 				}
 			}
 		}
 		// */
 		
+		if (docIDMap != null) {
+			// Old to new docIDs, headed by the static score used
+			BufferedWriter map_file = null;
+			try {
+				map_file = new BufferedWriter(new FileWriter(Store.staging("store/docid_map"), false));
+				map_file.write(staticScoreName() + "\n");
+				for (int old = 0; old < docIDMap.length; old++) {
+					if (docIDMap[old] >= 0) {
+						map_file.write(old + " " + docIDMap[old] + "\n");
+					}
+				}
+			} catch (IOException e) {
+				System.err.println(e);
+				complete = false;
+			} finally {
+				if(map_file != null){
+					try {
+						map_file.close();
+					} catch (IOException e) {
+						System.err.println(e);
+						complete = false;
+					}
+				}
+			}
+		}
+		
+		if (!complete) {
+			System.err.println("The index was not saved, " + Store.DIRECTORY + " is unchanged");
+			return;
+		}
+		try {
+			if (documents != null) {
+				documents.close();
+			}
+			Store.commit();
+			System.err.println("Saved " + index.size() + " terms in "
+				+ (System.nanoTime() - start_time) / 1000000 + " ms");
+		} catch (IOException e) {
+			System.err.println(e);
+		}
+		if (documents != null) {
+			// The store has moved with the rest of the index
+			documents = DocumentStore.open(DocumentStore.DEFAULT_FILE, DocumentStore.DEFAULT_INDEX_FILE);
+		}
 	}
 	
     /**
@@ -12,6 +12,7 @@ package ir;
 import java.util.Collection;
 import java.util.TreeMap;
 import java.util.Iterator;
+import java.util.Map;
 
 public interface Index {
 
@@ -40,6 +41,9 @@ public interface Index {
     public void insert( String token, int docID, int offset );
     public Iterator<String> getDictionary();
     public PostingsList getPostings( String token );
+    public Map<String, Double> getTermWeights( int docID );
+    public Query getSpellingSuggestion( Query query );
+    public String getSnippet( int docID, Query query );
     public Collection<PostingsEntry> search(Query query, int queryType, int rankingType, int structureType);
     public void cleanup();
 
@@ -37,6 +37,12 @@ public class Indexer {
     /** The next docID to be generated. */
     private int lastDocID = 0;
 
+    /** The settings of the index, to be applied again if it is replaced. */
+    private boolean staticRankOrder = false;
+    private boolean bigrams = false;
+    private boolean nextWords = false;
+    private boolean documentStore = false;
+
 
     /* ----------------------------------------------- */
 
@@ -56,18 +62,106 @@ public class Indexer {
 
 
     /**
-     *  Initializes the index as a HashedIndex.
+     *  Initializes the index as a HashedIndex, or as a FileIndex if
+     *  a saved index passes a quick check against its manifest.
      */
     public Indexer() {
-		if (Files.exists(Paths.get("store"))) {
+		Store.recover();
+		if (Files.exists(Paths.get(Store.DIRECTORY)) && Store.verify(false)) {
 			// Index on file
 			index = new FileIndex();
 		} else {
+			if (Files.exists(Paths.get(Store.DIRECTORY))) {
+				System.err.println("The saved index is damaged and will be rebuilt");
+			}
 			index = new HashedIndex();
 		}
     }
 
 
+    /**
+     *  Checks every file of an index read from file against its
+     *  checksum, and replaces it with an empty HashedIndex, to be
+     *  rebuilt, if any is damaged. The settings made so far are
+     *  applied to the new index.
+     */
+    public void verifyStore() {
+	if ( index instanceof FileIndex && !Store.verify( true )) {
+	    System.err.println( "The saved index is damaged and will be rebuilt" );
+	    index = new HashedIndex();
+	    setStaticRankOrder( staticRankOrder );
+	    setBigrams( bigrams );
+	    setNextWords( nextWords );
+	    setDocumentStore( documentStore );
+	}
+    }
+
+
+    /**
+     *  Makes the index number documents by descending static score
+     *  (PageRank, or document length if no scores are available)
+     *  when it is saved. Has no effect on an index read from file.
+     */
+    public void setStaticRankOrder( boolean staticRankOrder ) {
+	this.staticRankOrder = staticRankOrder;
+	if ( index instanceof HashedIndex ) {
+	    ((HashedIndex) index).setStaticRankOrder( staticRankOrder );
+	}
+    }
+
+
+    /**
+     *  Makes the index also build a bigram index, used for phrase
+     *  queries and the bigram structure type. Must be called before
+     *  any files are processed. Has no effect on an index read from
+     *  file.
+     */
+    public void setBigrams( boolean bigrams ) {
+	this.bigrams = bigrams;
+	if ( index instanceof HashedIndex ) {
+	    ((HashedIndex) index).setBigrams( bigrams );
+	}
+    }
+
+
+    /**
+     *  Makes the index also write a next-word index for the most
+     *  frequent words, to speed up phrase queries without a full
+     *  bigram index. Has no effect on an index read from file.
+     */
+    public void setNextWords( boolean nextWords ) {
+	this.nextWords = nextWords;
+	if ( index instanceof HashedIndex ) {
+	    ((HashedIndex) index).setNextWords( nextWords );
+	}
+    }
+
+
+    /**
+     *  Makes the index keep the tokens of every document in a
+     *  compressed document store, so that results can be shown with
+     *  snippets. Must be called before any files are processed. Has
+     *  no effect on an index read from file.
+     */
+    public void setDocumentStore( boolean documentStore ) {
+	this.documentStore = documentStore;
+	if ( index instanceof HashedIndex ) {
+	    ((HashedIndex) index).setDocumentStore( documentStore );
+	}
+    }
+
+
+    /**
+     *  Selects the common terms fast path of an index read from
+     *  file. Has no effect on an index in memory.
+     */
+    public void setCommonTermsMode( boolean commonTermsMode ) {
+	if ( index instanceof FileIndex ) {
+	    ((FileIndex) index).setCommonTermsMode( commonTermsMode );
+	}
+    }
+
+
     /* ----------------------------------------------- */
 
 
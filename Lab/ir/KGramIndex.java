@@ -0,0 +1,356 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package ir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ *   A k-gram index over the term dictionary, for wildcard queries
+ *   such as "statist*" or "*ning". Terms are numbered in dictionary
+ *   order, and every k-gram of "$term$" maps to the sorted numbers
+ *   of the terms containing it.
+ *
+ *   A pattern is expanded by intersecting the lists of the k-grams
+ *   of its fixed parts, and checking the remaining candidates
+ *   against the pattern. Patterns that are a plain prefix shorter
+ *   than k are looked up by binary search in the sorted dictionary.
+ *   On file (store/kgrams) the layout is
+ *
+ *   <pre>
+ *   int      MAGIC, K, T (terms)
+ *   T times  UTF term, int df
+ *   int      G (k-grams)
+ *   G times  UTF k-gram, int count, int[count] term numbers
+ *   </pre>
+ */
+public class KGramIndex {
+
+    public static final int MAGIC = 0x4b47524d;
+
+    /**  Length of the grams. */
+    public static final int K = 3;
+
+    /**  Marks the start and end of a term. */
+    public static final char BOUNDARY = '$';
+
+    /**  Largest number of terms a pattern expands to. */
+    public static final int MAX_EXPANSIONS = 100;
+
+    /**  Where FileIndex looks for the k-gram index. */
+    public static final String DEFAULT_FILE = "store/kgrams";
+
+    /**  The dictionary, sorted. */
+    private String[] terms;
+
+    /**  Document frequency of each term, for choosing among expansions. */
+    private int[] df;
+
+    private HashMap<String, int[]> grams = new HashMap<String, int[]>();
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *  Builds the k-gram index of the terms of an inverted index.
+     */
+    public KGramIndex( TreeMap<String, PostingsList> index ) {
+	String[] terms = index.keySet().toArray( new String[index.size()] );
+	int[] df = new int[terms.length];
+	int termID = 0;
+	for ( PostingsList postings : index.values() ) {
+	    df[termID++] = postings.size();
+	}
+	build( terms, df );
+    }
+
+    /**
+     *  Builds the k-gram index of a sorted dictionary with the
+     *  document frequencies of its terms.
+     */
+    public KGramIndex( String[] terms, int[] df ) {
+	build( terms, df );
+    }
+
+    private void build( String[] terms, int[] df ) {
+	this.terms = terms;
+	this.df = df;
+	HashMap<String, List<Integer>> lists = new HashMap<String, List<Integer>>();
+	for ( int termID=0; termID<terms.length; termID++ ) {
+	    String padded = BOUNDARY + terms[termID] + BOUNDARY;
+	    for ( int i=0; i+K<=padded.length(); i++ ) {
+		String gram = padded.substring( i, i+K );
+		List<Integer> list = lists.get( gram );
+		if ( list == null ) {
+		    list = new ArrayList<Integer>();
+		    lists.put( gram, list );
+		}
+		// A gram may occur twice in a term; keep the lists sets
+		if ( list.isEmpty() || list.get( list.size()-1 ) != termID ) {
+		    list.add( termID );
+		}
+	    }
+	}
+	for ( Map.Entry<String, List<Integer>> entry : lists.entrySet() ) {
+	    List<Integer> list = entry.getValue();
+	    int[] ids = new int[list.size()];
+	    for ( int i=0; i<ids.length; i++ ) {
+		ids[i] = list.get( i );
+	    }
+	    grams.put( entry.getKey(), ids );
+	}
+    }
+
+    private KGramIndex() {
+    }
+
+
+    /**
+     *  Reads the given k-gram index file, or returns null if it does
+     *  not exist or cannot be read.
+     */
+    public static KGramIndex open( String filename ) {
+	File f = new File( filename );
+	if ( !f.exists() ) return null;
+	DataInputStream in = null;
+	try {
+	    in = new DataInputStream( new BufferedInputStream( new FileInputStream( f )));
+	    if ( in.readInt() != MAGIC || in.readInt() != K ) {
+		throw new IOException( filename + " is not a " + K + "-gram index" );
+	    }
+	    KGramIndex kgrams = new KGramIndex();
+	    int t = in.readInt();
+	    kgrams.terms = new String[t];
+	    kgrams.df = new int[t];
+	    for ( int i=0; i<t; i++ ) {
+		kgrams.terms[i] = in.readUTF();
+		kgrams.df[i] = in.readInt();
+	    }
+	    int g = in.readInt();
+	    for ( int i=0; i<g; i++ ) {
+		String gram = in.readUTF();
+		int[] ids = new int[in.readInt()];
+		for ( int j=0; j<ids.length; j++ ) {
+		    ids[j] = in.readInt();
+		}
+		kgrams.grams.put( gram, ids );
+	    }
+	    return kgrams;
+	}
+	catch ( IOException e ) {
+	    System.err.println( e );
+	    return null;
+	}
+	finally {
+	    try {
+		if ( in != null ) in.close();
+	    }
+	    catch ( IOException e ) {
+		System.err.println( e );
+	    }
+	}
+    }
+
+    public void write( String filename ) throws IOException {
+	DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( filename )));
+	try {
+	    out.writeInt( MAGIC );
+	    out.writeInt( K );
+	    out.writeInt( terms.length );
+	    for ( int i=0; i<terms.length; i++ ) {
+		out.writeUTF( terms[i] );
+		out.writeInt( df[i] );
+	    }
+	    out.writeInt( grams.size() );
+	    for ( Map.Entry<String, int[]> entry : grams.entrySet() ) {
+		out.writeUTF( entry.getKey() );
+		out.writeInt( entry.getValue().length );
+		for ( int id : entry.getValue() ) {
+		    out.writeInt( id );
+		}
+	    }
+	}
+	finally {
+	    out.close();
+	}
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    public int size() {
+	return terms.length;
+    }
+
+    public String term( int termID ) {
+	return terms[termID];
+    }
+
+    public int df( int termID ) {
+	return df[termID];
+    }
+
+    /**
+     *  The terms of the dictionary, in sorted order.
+     */
+    public List<String> terms() {
+	return Collections.unmodifiableList( Arrays.asList( terms ));
+    }
+
+
+    /**
+     *  The numbers of the terms matching a pattern where '*' stands
+     *  for any string. If there are more than MAX_EXPANSIONS, those
+     *  with the highest document frequency are kept. The numbers are
+     *  sorted.
+     */
+    public int[] expand( String pattern ) {
+	int star = pattern.indexOf( SimpleTokenizer.WILDCARD );
+	int[] candidates;
+	if ( star < 0 ) {
+	    int i = Arrays.binarySearch( terms, pattern );
+	    return i >= 0 ? new int[] { i } : new int[0];
+	}
+	else if ( star == pattern.length()-1 && star < K ) {
+	    // A short prefix: a range of the sorted dictionary
+	    String prefix = pattern.substring( 0, star );
+	    int from = lowerBound( prefix );
+	    int to = from;
+	    while ( to < terms.length && terms[to].startsWith( prefix )) {
+		to++;
+	    }
+	    candidates = new int[to-from];
+	    for ( int i=0; i<candidates.length; i++ ) {
+		candidates[i] = from + i;
+	    }
+	}
+	else {
+	    candidates = null;
+	    String padded = BOUNDARY + pattern + BOUNDARY;
+	    for ( String part : padded.split( "\\" + SimpleTokenizer.WILDCARD )) {
+		for ( int i=0; i+K<=part.length(); i++ ) {
+		    int[] ids = grams.get( part.substring( i, i+K ));
+		    if ( ids == null ) {
+			return new int[0];
+		    }
+		    candidates = candidates == null ? ids : intersect( candidates, ids );
+		}
+	    }
+	    if ( candidates == null ) {
+		// No fixed part of length K, check every term
+		candidates = new int[terms.length];
+		for ( int i=0; i<candidates.length; i++ ) {
+		    candidates[i] = i;
+		}
+	    }
+	}
+
+	int count = 0;
+	int[] matches = new int[candidates.length];
+	for ( int id : candidates ) {
+	    if ( matches( pattern, terms[id] )) {
+		matches[count++] = id;
+	    }
+	}
+	matches = Arrays.copyOf( matches, count );
+	if ( count > MAX_EXPANSIONS ) {
+	    Integer[] byFrequency = new Integer[count];
+	    for ( int i=0; i<count; i++ ) {
+		byFrequency[i] = matches[i];
+	    }
+	    Arrays.sort( byFrequency, new Comparator<Integer>() {
+		    public int compare( Integer t1, Integer t2 ) {
+			return df[t2] - df[t1];
+		    }
+		});
+	    matches = new int[MAX_EXPANSIONS];
+	    for ( int i=0; i<MAX_EXPANSIONS; i++ ) {
+		matches[i] = byFrequency[i];
+	    }
+	    Arrays.sort( matches );
+	}
+	return matches;
+    }
+
+
+    /**
+     *  The first position in the dictionary not before @code{key}.
+     */
+    private int lowerBound( String key ) {
+	int lo = 0;
+	int hi = terms.length;
+	while ( lo < hi ) {
+	    int mid = ( lo + hi ) >>> 1;
+	    if ( terms[mid].compareTo( key ) < 0 ) lo = mid + 1;
+	    else hi = mid;
+	}
+	return lo;
+    }
+
+
+    private static int[] intersect( int[] a, int[] b ) {
+	int[] result = new int[Math.min( a.length, b.length )];
+	int i = 0, j = 0, n = 0;
+	while ( i < a.length && j < b.length ) {
+	    if ( a[i] < b[j] ) i++;
+	    else if ( a[i] > b[j] ) j++;
+	    else {
+		result[n++] = a[i];
+		i++;
+		j++;
+	    }
+	}
+	return Arrays.copyOf( result, n );
+    }
+
+
+    /**
+     *  Whether the term matches the pattern, '*' matching any string.
+     */
+    static boolean matches( String pattern, String term ) {
+	int p = 0, t = 0;
+	int star = -1, mark = 0;
+	while ( t < term.length() ) {
+	    if ( p < pattern.length() && pattern.charAt( p ) == SimpleTokenizer.WILDCARD ) {
+		star = p++;
+		mark = t;
+	    }
+	    else if ( p < pattern.length() && pattern.charAt( p ) == term.charAt( t )) {
+		p++;
+		t++;
+	    }
+	    else if ( star >= 0 ) {
+		// Let the last star swallow one more character
+		p = star + 1;
+		t = ++mark;
+	    }
+	    else {
+		return false;
+	    }
+	}
+	while ( p < pattern.length() && pattern.charAt( p ) == SimpleTokenizer.WILDCARD ) {
+	    p++;
+	}
+	return p == pattern.length();
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *   Precomputed PageRank scores, memory mapped from the file written
+ *   by pagerank.PageRank. The file layout is
+ *
+ *   <pre>
+ *   int       MAGIC
+ *   int       n
+ *   double[n] scores, in title order
+ *   int[n+1]  offsets of the titles in the blob
+ *   byte[]    UTF-8 titles, sorted bytewise
+ *   </pre>
+ *
+ *   Titles are the document file names without directory and
+ *   extension, so "svwiki/files/4000/3338.txt" has title "3338".
+ */
+public class PageRankScores {
+
+	public static final int MAGIC = 0x50524b31;
+
+	/**  Where the searcher looks for the scores by default. */
+	public static final String DEFAULT_FILE = "pagerank.bin";
+
+	/**  Weight of the tf-idf score in COMBINATION ranking. */
+	public static final double TF_IDF_WEIGHT = 0.7;
+
+	/**  Weight of the PageRank score in COMBINATION ranking. */
+	public static final double PAGERANK_WEIGHT = 0.3;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private MappedByteBuffer buffer;
+	private int n;
+	private int scoreBase;
+	private int offsetBase;
+	private int titleBase;
+	private double maxScore = 0;
+
+	private PageRankScores(MappedByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a PageRank score file");
+		}
+		n = buffer.getInt(4);
+		scoreBase = 8;
+		offsetBase = scoreBase + 8*n;
+		titleBase = offsetBase + 4*(n+1);
+		for (int i = 0; i < n; i++) {
+			maxScore = Math.max(maxScore, buffer.getDouble(scoreBase + 8*i));
+		}
+	}
+
+	/**
+	 *  Maps the given score file, or returns null if it does
+	 *  not exist or cannot be read.
+	 */
+	public static PageRankScores open(String filename) {
+		File f = new File(filename);
+		if (!f.exists()) return null;
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(f, "r");
+			FileChannel channel = file.getChannel();
+			return new PageRankScores(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} catch (IOException e) {
+			System.err.println("Could not read PageRank scores from " + filename + ": " + e);
+			return null;
+		} finally {
+			try {
+				if (file != null) file.close();
+			} catch (IOException e) {
+				System.err.println(e);
+			}
+		}
+	}
+
+	/**
+	 *  The title under which PageRank knows a document.
+	 */
+	public static String titleOf(String docName) {
+		String title = new File(docName).getName();
+		int dot = title.lastIndexOf('.');
+		if (dot > 0) title = title.substring(0, dot);
+		return title;
+	}
+
+	public int size() {
+		return n;
+	}
+
+	public double maxScore() {
+		return maxScore;
+	}
+
+	/**
+	 *  Binary search for the title, comparing the UTF-8 bytes
+	 *  directly in the mapped buffer. Returns the slot or -1.
+	 */
+	private int find(byte[] key) {
+		int lo = 0;
+		int hi = n - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int start = titleBase + buffer.getInt(offsetBase + 4*mid);
+			int end = titleBase + buffer.getInt(offsetBase + 4*(mid+1));
+			int comp = 0;
+			int i = 0;
+			for (; i < key.length && start + i < end; i++) {
+				comp = (buffer.get(start + i) & 0xff) - (key[i] & 0xff);
+				if (comp != 0) break;
+			}
+			if (comp == 0) comp = (end - start) - key.length;
+			if (comp < 0) {
+				lo = mid + 1;
+			} else if (comp > 0) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 *  PageRank of the document with the given title, 0 if unknown.
+	 */
+	public double score(String title) {
+		int slot = find(title.getBytes(UTF8));
+		if (slot < 0) return 0;
+		return buffer.getDouble(scoreBase + 8*slot);
+	}
+
+	/**
+	 *  PageRank of the document with the given docID.
+	 */
+	public double score(Index index, int docID) {
+		String docName = index.getDocName("" + docID);
+		if (docName == null) return 0;
+		return score(titleOf(docName));
+	}
+
+	/**
+	 *  Rescores and sorts a ranked result list according to the
+	 *  ranking type. TF_IDF leaves the list untouched, PAGERANK
+	 *  uses the static score only and COMBINATION blends the two
+	 *  linearly after scaling each to [0, 1].
+	 */
+	public void rank(List<PostingsEntry> results, int rankingType, Index index) {
+		if (rankingType == Index.PAGERANK) {
+			for (PostingsEntry entry : results) {
+				entry.score = score(index, entry.docID);
+			}
+		} else if (rankingType == Index.COMBINATION) {
+			double maxTfIdf = 0;
+			for (PostingsEntry entry : results) {
+				maxTfIdf = Math.max(maxTfIdf, entry.score);
+			}
+			for (PostingsEntry entry : results) {
+				double tf_idf = maxTfIdf > 0 ? entry.score / maxTfIdf : 0;
+				double pagerank = maxScore > 0 ? score(index, entry.docID) / maxScore : 0;
+				entry.score = TF_IDF_WEIGHT * tf_idf + PAGERANK_WEIGHT * pagerank;
+			}
+		} else {
+			return;
+		}
+		Collections.sort(results, PostingsEntry.SCORE_COMPARATOR_ASCENDING);
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ *   Chooses how to evaluate a phrase query. The words of the phrase
+ *   are covered by postings lists, each matching at a fixed offset
+ *   into the phrase: single terms, or word pairs from the bigram or
+ *   next-word index. The cover with the smallest estimated cost is
+ *   found by dynamic programming over the phrase, and its lists are
+ *   then intersected positionally, cheapest first.
+ *
+ *   Every list after the first is only decoded for the documents
+ *   matched so far, so the long lists of common words are only
+ *   verified positionally in a few candidate documents.
+ *
+ *   For a stop-word heavy phrase such as "det var en gång" this
+ *   replaces the long positional lists of the stop words by the much
+ *   shorter lists of the pairs they start.
+ */
+public class PhrasePlanner {
+
+    /* Kinds of postings lists */
+    public static final int TERM = 0;
+    public static final int BIGRAM = 1;
+    public static final int NEXT_WORD = 2;
+
+    /**
+     *   Where the postings lists come from.
+     */
+    public interface Source {
+
+	/**
+	 *   The estimated cost of fetching a list, such as its number
+	 *   of positions, or -1 if there is no such list. A pair key is
+	 *   made by Query.bigram.
+	 */
+	public long cost( int kind, String key );
+
+	/**
+	 *   The list, restricted to the documents in @code{candidates}
+	 *   unless that is null. A source may return more documents.
+	 */
+	public PostingsList fetch( int kind, String key, boolean skipPositions, PostingsList candidates );
+    }
+
+    /**
+     *   One list of a plan, matching at word @code{offset} of the phrase.
+     */
+    public static class Step {
+	public final int kind;
+	public final String key;
+	public final int offset;
+	public final long cost;
+
+	Step( int kind, String key, int offset, long cost ) {
+	    this.kind = kind;
+	    this.key = key;
+	    this.offset = offset;
+	    this.cost = cost;
+	}
+
+	public String toString() {
+	    String[] kinds = { "term", "bigram", "next-word" };
+	    return kinds[kind] + " " + key + " @" + offset + " (" + cost + ")";
+	}
+    }
+
+    private final Source source;
+
+
+    /* --------------------------------------------- */
+
+
+    public PhrasePlanner( Source source ) {
+	this.source = source;
+    }
+
+
+    /**
+     *   The cheapest cover of the phrase, in the order the lists
+     *   should be intersected.
+     */
+    public List<Step> plan( List<String> terms ) {
+	int n = terms.size();
+	Step[] term = new Step[n];
+	Step[] pair = new Step[n];
+	for ( int i=0; i<n; i++ ) {
+	    term[i] = new Step( TERM, terms.get( i ), i, Math.max( 0, source.cost( TERM, terms.get( i ))));
+	    // Wildcards have no pairs, they are expanded as terms
+	    if ( i+1 < n && !Query.isWildcard( terms.get( i )) && !Query.isWildcard( terms.get( i+1 ))) {
+		String key = Query.bigram( terms.get( i ), terms.get( i+1 ));
+		for ( int kind : new int[] { BIGRAM, NEXT_WORD } ) {
+		    long cost = source.cost( kind, key );
+		    if ( cost >= 0 && ( pair[i] == null || cost < pair[i].cost )) {
+			pair[i] = new Step( kind, key, i, cost );
+		    }
+		}
+	    }
+	}
+
+	// best[i] is the cheapest cover of words 0 .. i-1, ending in
+	// last[i] and continuing from cover[i].
+	long[] best = new long[n+1];
+	Step[] last = new Step[n+1];
+	int[] cover = new int[n+1];
+	for ( int i=1; i<=n; i++ ) {
+	    best[i] = Long.MAX_VALUE;
+	}
+	for ( int i=0; i<n; i++ ) {
+	    if ( best[i] == Long.MAX_VALUE ) continue;
+	    // Word i alone, or with the previous (already covered) word
+	    Step single = term[i];
+	    if ( i > 0 && pair[i-1] != null && pair[i-1].cost < single.cost ) {
+		single = pair[i-1];
+	    }
+	    if ( best[i] + single.cost < best[i+1] ) {
+		best[i+1] = best[i] + single.cost;
+		last[i+1] = single;
+		cover[i+1] = i;
+	    }
+	    // Words i and i+1 together
+	    if ( pair[i] != null && best[i] + pair[i].cost < best[i+2] ) {
+		best[i+2] = best[i] + pair[i].cost;
+		last[i+2] = pair[i];
+		cover[i+2] = i;
+	    }
+	}
+
+	List<Step> steps = new ArrayList<Step>();
+	for ( int i=n; i>0; i=cover[i] ) {
+	    steps.add( last[i] );
+	}
+	Collections.sort( steps, new Comparator<Step>() {
+		public int compare( Step s1, Step s2 ) {
+		    return s1.cost < s2.cost ? -1 : s1.cost > s2.cost ? 1 : s1.offset - s2.offset;
+		}
+	    });
+	return steps;
+    }
+
+
+    /**
+     *   The documents containing the phrase. Positions are those of
+     *   the first list intersected, not of the phrase start.
+     */
+    public PostingsList evaluate( List<String> terms ) {
+	List<Step> steps = plan( terms );
+	if ( steps.isEmpty() ) {
+	    return new PostingsList();
+	}
+	Step first = steps.get( 0 );
+	// A single list needs no positions
+	PostingsList results = source.fetch( first.kind, first.key, steps.size() == 1, null );
+	for ( int s=1; s<steps.size() && results.size()>0; s++ ) {
+	    CancellationToken.check();
+	    Step step = steps.get( s );
+	    int offset = step.offset - first.offset;
+	    // Only documents matched so far need to be decoded
+	    results = results.intersect( source.fetch( step.kind, step.key, false, results ), offset, offset );
+	}
+	return results;
+    }
+}
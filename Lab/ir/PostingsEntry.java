@@ -63,6 +63,22 @@ public class PostingsEntry implements Comparable<PostingsEntry>, Serializable {
 		return positions.iterator();
 	}
 	
+	/**
+	 *  Number of occurrences of the term in this document.
+	 */
+	public int getTermFrequency() {
+		return positions.size();
+	}
+	
+	/**
+	 *  Whether the term occurs at some position in [from, to]
+	 *  (both limits inclusive).
+	 */
+	public boolean hasPositionIn(int from, int to) {
+		Integer pos = positions.ceiling(from);
+		return pos != null && pos <= to;
+	}
+	
     //
     //  YOUR CODE HERE
     //
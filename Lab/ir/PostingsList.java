@@ -11,13 +11,11 @@ package ir;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.TreeMap;
-import java.util.HashSet;
-import java.util.Set;
 import java.io.Serializable;
 import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 
 /**
  *   A list of postings for a given word.
@@ -28,6 +26,9 @@ public class PostingsList implements Serializable, Iterable<PostingsEntry> {
     private TreeMap<Integer, PostingsEntry> list =
 		new TreeMap<Integer, PostingsEntry>();
 	
+	/**  The docIDs as a compressed bitmap, built when first needed. */
+	private transient DocIDSet docIDSet = null;
+	
     /**  Number of postings in this list  */
     public int size() {
 		return list.size();
@@ -39,6 +40,15 @@ public class PostingsList implements Serializable, Iterable<PostingsEntry> {
 		// return list.get( i );
     // }
 	
+	/**  Total number of occurrences in all documents. */
+	public int collectionFrequency() {
+		int cf = 0;
+		for (PostingsEntry entry : this) {
+			cf += entry.getTermFrequency();
+		}
+		return cf;
+	}
+	
 	public Collection<PostingsEntry> toCollection() {
 		return list.values();
 	}
@@ -58,11 +68,14 @@ public class PostingsList implements Serializable, Iterable<PostingsEntry> {
 	public void add(PostingsEntry entry) {
 		assert(!list.containsKey(entry.docID));
 		list.put(entry.docID, entry);
+		docIDSet = null;
 	}
 	
 	public void add(int docID, double score, int offset) {
-		if (!list.containsKey(docID))
+		if (!list.containsKey(docID)) {
 			list.put(docID, new PostingsEntry(docID, score));
+			docIDSet = null;
+		}
 		list.get(docID).addPosition(offset);
 	}
 	
@@ -70,20 +83,66 @@ public class PostingsList implements Serializable, Iterable<PostingsEntry> {
 		return list.get(docID);
 	}
 	
-	public void marshalDump(RandomAccessFile doc_file, RandomAccessFile pos_file)
+	/**
+	 *  The docIDs of the list as a DocIDSet, for boolean queries.
+	 *  Kept until the next document is added.
+	 */
+	public DocIDSet docIDs() {
+		if (docIDSet == null) {
+			docIDSet = DocIDSet.of(list.navigableKeySet());
+		}
+		return docIDSet;
+	}
+	
+	/**
+	 * The documents of a set, as found by a boolean query over the
+	 * given lists, each scored by the sum of its scores in them.
+	 */
+	public static PostingsList select(DocIDSet docs, List<PostingsList> lists) {
+		int[] docIDs = docs.toArray();
+		double[] scores = new double[docIDs.length];
+		for (PostingsList list : lists) {
+			// Both in docID order, so one pass over each list
+			Iterator<PostingsEntry> iter = list.iterator();
+			int i = 0;
+			while (i < docIDs.length && iter.hasNext()) {
+				PostingsEntry entry = iter.next();
+				while (i < docIDs.length && docIDs[i] < entry.docID) i++;
+				if (i < docIDs.length && docIDs[i] == entry.docID) scores[i] += entry.score;
+			}
+		}
+		PostingsList res = new PostingsList();
+		for (int i = 0; i < docIDs.length; i++) {
+			res.add(docIDs[i], scores[i], 0);
+		}
+		return res;
+	}
+	
+	public void marshalDump(ChannelWriter doc_file, ChannelWriter pos_file)
 	throws IOException {
 		for (PostingsEntry entry : this) {
-			long pos_pointer = pos_file.getFilePointer();
-			String dump = "" + entry.docID + ":" + pos_pointer + " ";
-			doc_file.writeBytes(dump);
+			long pos_pointer = pos_file.position();
+			doc_file.append(entry.docID).append(':').append(pos_pointer).append(' ');
 			Iterator<Integer> pos_iter = entry.getPositionIterator();
 			while (pos_iter.hasNext()) {
 				int pos = pos_iter.next();
-				pos_file.writeBytes("" + pos + " ");
+				pos_file.append(pos).append(' ');
 			}
-			pos_file.writeBytes("\n");
+			pos_file.append('\n');
+		}
+		doc_file.append('\n');
+	}
+	
+	/**
+	 *  Writes the list as a single line of docID:score pairs,
+	 *  without positions. Used for champion lists.
+	 */
+	public void marshalScores(ChannelWriter file)
+	throws IOException {
+		for (PostingsEntry entry : this) {
+			file.append(entry.docID).append(':').append(entry.score).append(' ');
 		}
-		doc_file.writeBytes("\n");
+		file.append('\n');
 	}
 	
 	
@@ -94,19 +153,6 @@ public class PostingsList implements Serializable, Iterable<PostingsEntry> {
 		PostingsList P1 = this;
 		PostingsList res = new PostingsList();
 		
-		// /*
-		// Sanity:
-		// ID_union is guaranteed to be the union of all
-		// docIDs in P1 and P2, check for consistency!
-		Set<Integer> ID_union = new HashSet<Integer>();
-		for (PostingsEntry entry : P1) {
-			ID_union.add(entry.docID);
-		}
-		for (PostingsEntry entry : P2) {
-			ID_union.add(entry.docID);
-		}
-		// */
-		
 		// /* Textbook algorithm in O(n)
 		Iterator<PostingsEntry> iter_1 = P1.iterator();
 		Iterator<PostingsEntry> iter_2 = P2.iterator();
@@ -156,10 +202,6 @@ public class PostingsList implements Serializable, Iterable<PostingsEntry> {
 			}
 		}
 		
-		System.out.println("Expected size: " + ID_union.size());
-		System.out.println("Actual size: " + res.size());
-		assert ID_union.size() == res.size();
-		
 		/*
 		for (PostingsEntry entry : P1) {
 			if (P2.contains(entry)) {
@@ -183,6 +225,60 @@ public class PostingsList implements Serializable, Iterable<PostingsEntry> {
 		
 	}
 	
+	/**
+	 * Take the union of all the lists in one pass. A heap holds the
+	 * current entry of each list, so every entry is visited once
+	 * however many lists there are, as when a wildcard expands to
+	 * many terms. Scores of a document are summed and its positions
+	 * merged.
+	 */
+	public static PostingsList union(List<PostingsList> lists) {
+		PriorityQueue<Cursor> heap = new PriorityQueue<Cursor>(Math.max(1, lists.size()));
+		for (PostingsList list : lists) {
+			Cursor cursor = new Cursor(list.iterator());
+			if (cursor.entry != null) heap.add(cursor);
+		}
+		PostingsList res = new PostingsList();
+		PostingsEntry current = null;
+		while (!heap.isEmpty()) {
+			Cursor cursor = heap.poll();
+			PostingsEntry entry = cursor.entry;
+			if (current == null || current.docID != entry.docID) {
+				current = new PostingsEntry(entry.docID, 0);
+				res.add(current);
+			}
+			current.score += entry.score;
+			Iterator<Integer> positions = entry.getPositionIterator();
+			while (positions.hasNext()) {
+				current.addPosition(positions.next());
+			}
+			if (cursor.advance()) heap.add(cursor);
+		}
+		return res;
+	}
+	
+	/**
+	 * The next entry of a list, ordered by docID in the union heap.
+	 */
+	private static class Cursor implements Comparable<Cursor> {
+		private final Iterator<PostingsEntry> iter;
+		PostingsEntry entry;
+		
+		Cursor(Iterator<PostingsEntry> iter) {
+			this.iter = iter;
+			advance();
+		}
+		
+		boolean advance() {
+			entry = iter.hasNext() ? iter.next() : null;
+			return entry != null;
+		}
+		
+		public int compareTo(Cursor other) {
+			return entry.docID < other.entry.docID ? -1 : entry.docID > other.entry.docID ? 1 : 0;
+		}
+	}
+	
 	/**
 	 * Take the intersection of this list and P2.
 	 */
@@ -226,7 +322,6 @@ public class PostingsList implements Serializable, Iterable<PostingsEntry> {
 	public PostingsList intersect(PostingsList P2, int k1, int k2) {
 		PostingsList P1 = this;
 		PostingsList res = new PostingsList();
-		System.out.println("Intersecting in window [" + k1 + ", " + k2 + "]");
 		
 		Iterator<PostingsEntry> iter_1 = P1.iterator();
 		Iterator<PostingsEntry> iter_2 = P2.iterator();
@@ -237,31 +332,14 @@ public class PostingsList implements Serializable, Iterable<PostingsEntry> {
 		while (p1 != null && p2 != null) {
 			if (p1.docID == p2.docID) {
 				
-				System.out.println("Checking document " + p1.docID);
-				
+				// Keep the positions of P1 that have a match, so that
+				// the result can be intersected with the next term of
+				// a phrase.
 				Iterator<Integer> pos_iter_1 = p1.getPositionIterator();
-				Iterator<Integer> pos_iter_2 = p2.getPositionIterator();
-				int pos_1 = -1;
-				int pos_2 = -1;
-				if (pos_iter_1.hasNext()) pos_1 = pos_iter_1.next();
-				if (pos_iter_2.hasNext()) pos_2 = pos_iter_2.next();
-				while (pos_1 != -1 && pos_2 != -1) {
-					int w1 = pos_1 + k1;
-					int w2 = pos_1 + k2;
-					System.out.println("Searching for " + pos_2 + " in window [" + w1 + ", " + w2 + "]");
-					if ( w1 <= pos_2 && pos_2 <= w2 ) {
-						res.add(p1.docID, p1.score + p2.score, 0);
-						// if (pos_iter_1.hasNext()) pos_1 = pos_iter_1.next();
-						// else pos_1 = -1;
-						// if (pos_iter_2.hasNext()) pos_2 = pos_iter_2.next();
-						// else pos_2 = -1;
-						break;
-					} else if ( w1 > pos_2 ) {
-						if (pos_iter_2.hasNext()) pos_2 = pos_iter_2.next();
-						else pos_2 = -1;
-					} else if ( w2 < pos_2 ) {
-						if (pos_iter_1.hasNext()) pos_1 = pos_iter_1.next();
-						else pos_1 = -1;
+				while (pos_iter_1.hasNext()) {
+					int pos_1 = pos_iter_1.next();
+					if (p2.hasPositionIn(pos_1 + k1, pos_1 + k2)) {
+						res.add(p1.docID, p1.score + p2.score, pos_1);
 					}
 				}
 				
@@ -7,12 +7,31 @@
 
 package ir;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 
 public class Query {
     
+    /**  Rocchio weight of the original query. */
+    public static final double ALPHA = 1.0;
+
+    /**  Rocchio weight of the centroid of the relevant documents. */
+    public static final double BETA = 0.75;
+
+    /**  Number of terms kept in a query expanded by relevance feedback. */
+    public static final int FEEDBACK_TERMS = 50;
+
+    /**  Joins the words of a bigram; never part of a token. */
+    public static final String BIGRAM_SEPARATOR = "_";
+
     public LinkedList<String> terms = new LinkedList<String>();
     public LinkedList<Double> weights = new LinkedList<Double>();
 
@@ -40,6 +59,42 @@ public class Query {
 	return terms.size();
     }
     
+    /**
+     *  Returns the index term for the bigram "first second".
+     */
+    public static String bigram( String first, String second ) {
+	return first + BIGRAM_SEPARATOR + second;
+    }
+
+    /**
+     *  Returns true if the term is a pattern with wildcards.
+     */
+    public static boolean isWildcard( String term ) {
+	return term.indexOf( SimpleTokenizer.WILDCARD ) >= 0;
+    }
+
+    /**
+     *  Returns the bigrams of consecutive query terms, in order.
+     */
+    public LinkedList<String> bigrams() {
+	LinkedList<String> bigrams = new LinkedList<String>();
+	String previous = null;
+	for ( String term : terms ) {
+	    if ( previous != null ) {
+		bigrams.add( bigram( previous, term ));
+	    }
+	    previous = term;
+	}
+	return bigrams;
+    }
+    
+    /**
+     *  Returns the weight of each distinct term, summed over repeats.
+     */
+    public Map<String,Double> weightsByTerm() {
+	return weightMap( terms, weights );
+    }
+    
     /**
      *  Returns a shallow copy of the Query
      */
@@ -51,16 +106,87 @@ public class Query {
     }
     
     /**
-     *  Expands the Query using Relevance Feedback
+     *  Expands the Query using Relevance Feedback. The Rocchio
+     *  method moves the query vector towards the centroid of the
+     *  relevant documents,
+     *
+     *    q' = ALPHA * q + BETA * (1/|R|) * sum of d over R,
+     *
+     *  where q and each document vector d are of unit length. The
+     *  document vectors are the tf-idf weights from the forward index.
+     *  Only the FEEDBACK_TERMS terms with the highest weights are kept.
      */
     public void relevanceFeedback( Collection<PostingsEntry> results, boolean[] docIsRelevant, Indexer indexer ) {
 	// results contain the ranked list from the current search
 	// docIsRelevant contains the users feedback on which of the 10 first hits are relevant
-	
-	//
-	//  YOUR CODE HERE
-	//
+	HashMap<String,Double> vector = new HashMap<String,Double>();
+	addScaled( vector, weightMap( terms, weights ), ALPHA );
+
+	List<Map<String,Double>> relevant = new ArrayList<Map<String,Double>>();
+	int i = 0;
+	for ( PostingsEntry entry : results ) {
+	    if ( i >= docIsRelevant.length ) break;
+	    if ( docIsRelevant[i++] ) {
+		Map<String,Double> doc = indexer.index.getTermWeights( entry.docID );
+		if ( doc != null ) {
+		    relevant.add( doc );
+		}
+	    }
+	}
+	if ( relevant.isEmpty() ) {
+	    return;
+	}
+	for ( Map<String,Double> doc : relevant ) {
+	    addScaled( vector, doc, BETA / relevant.size() );
+	}
+
+	List<Map.Entry<String,Double>> ranked = new ArrayList<Map.Entry<String,Double>>( vector.entrySet() );
+	Collections.sort( ranked, new Comparator<Map.Entry<String,Double>>() {
+		public int compare( Map.Entry<String,Double> e1, Map.Entry<String,Double> e2 ) {
+		    return Double.compare( e2.getValue(), e1.getValue() );
+		}
+	    });
+	terms.clear();
+	weights.clear();
+	for ( Map.Entry<String,Double> entry : ranked ) {
+	    if ( terms.size() >= FEEDBACK_TERMS || entry.getValue() <= 0 ) break;
+	    terms.add( entry.getKey() );
+	    weights.add( entry.getValue() );
+	}
+    }
+
+
+    /**
+     *  The terms with their summed weights.
+     */
+    private static Map<String,Double> weightMap( List<String> terms, List<Double> weights ) {
+	HashMap<String,Double> map = new HashMap<String,Double>();
+	Iterator<Double> w = weights.iterator();
+	for ( String term : terms ) {
+	    double weight = w.hasNext() ? w.next() : 1;
+	    Double old = map.get( term );
+	    map.put( term, old == null ? weight : old + weight );
+	}
+	return map;
+    }
+
+
+    /**
+     *  Adds @code{scale} times the unit length version of
+     *  @code{vector} to @code{sum}.
+     */
+    private static void addScaled( Map<String,Double> sum, Map<String,Double> vector, double scale ) {
+	double norm = 0;
+	for ( double w : vector.values() ) {
+	    norm += w*w;
+	}
+	if ( norm == 0 ) return;
+	scale /= Math.sqrt( norm );
+	for ( Map.Entry<String,Double> entry : vector.entrySet() ) {
+	    Double old = sum.get( entry.getKey() );
+	    double w = scale * entry.getValue();
+	    sum.put( entry.getKey(), old == null ? w : old + w );
+	}
     }
 }
 
-    
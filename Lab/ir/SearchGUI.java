@@ -16,6 +16,7 @@ import java.io.InputStreamReader;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
@@ -51,6 +52,15 @@ public class SearchGUI extends JFrame {
     /**  The word structure type (either unigram, bigram, or subphrase). */
     int structureType = Index.UNIGRAM;
 		
+    /**  Number of top results shown with a snippet. */
+    public static final int SNIPPET_RESULTS = 10;
+
+    /**  Number of results rendered at a time after the first ones. */
+    public static final int PAGE_SIZE = 500;
+
+    /**  The search running in the background, if any. */
+    private SearchWorker searchWorker = null;
+
     /**  Lock to prevent simultaneous access to the index. */
     Object indexLock = new Object();
 
@@ -84,6 +94,7 @@ public class SearchGUI extends JFrame {
     JRadioButtonMenuItem intersectionItem = new JRadioButtonMenuItem( "Intersection query" );
     JRadioButtonMenuItem phraseItem = new JRadioButtonMenuItem( "Phrase query" );
     JRadioButtonMenuItem rankedItem = new JRadioButtonMenuItem( "Ranked retrieval" );
+    JCheckBoxMenuItem commonTermsItem = new JCheckBoxMenuItem( "Common terms fast path" );
     JRadioButtonMenuItem tfidfItem = new JRadioButtonMenuItem( "tf-idf" );
     JRadioButtonMenuItem pagerankItem = new JRadioButtonMenuItem( "PageRank" );
     JRadioButtonMenuItem combinationItem = new JRadioButtonMenuItem( "Combination" );
@@ -121,6 +132,8 @@ public class SearchGUI extends JFrame {
 	optionsMenu.add( intersectionItem );
 	optionsMenu.add( phraseItem );
 	optionsMenu.add( rankedItem );
+	optionsMenu.addSeparator();
+	optionsMenu.add( commonTermsItem );
 	rankingMenu.add( tfidfItem ); 
 	rankingMenu.add( pagerankItem ); 
 	rankingMenu.add( combinationItem ); 
@@ -170,46 +183,7 @@ public class SearchGUI extends JFrame {
 		public void actionPerformed( ActionEvent e ) {
 		    // Normalize the search string and turn it into a Query
 		    String queryString = SimpleTokenizer.normalize( queryWindow.getText() );
-		    query = new Query( queryString );
-		    // Search and print results. Access to the index is synchronized since
-		    // we don't want to search at the same time we're indexing new files
-		    // (this might corrupt the index).
-		    synchronized ( indexLock ) {
-				long start_time = System.nanoTime();
-				results = indexer.index.search(query, queryType, rankingType, structureType); 
-				long elapsed = System.nanoTime() - start_time;
-				System.out.println("Query took " + elapsed + " ns");
-		    }
-		    StringBuffer buf = new StringBuffer();
-		    if ( results != null ) {
-			buf.append( "\nFound " + results.size() + " matching document(s)\n\n" );
-			// for ( int i=0; i<results.size(); i++ ) {
-			int i = 0;
-			for (PostingsEntry entry : results) {
-				i++;
-			    buf.append( " " + i + ". " );
-			    // String filename = indexer.index.docIDs.get( "" + results.get(i).docID );
-			    // String filename = indexer.index.docIDs.get( "" + entry.docID );
-			    String filename = indexer.index.getDocName( "" + entry.docID );
-			    if ( filename == null ) {
-				// buf.append( "" + results.get(i).docID );
-				buf.append( "" + entry.docID );
-			    }
-			    else {
-				buf.append( filename );
-			    }
-			    if ( queryType == Index.RANKED_QUERY ) {
-				// buf.append( "   " + String.format( "%.5f", results.get(i).score )); 
-				buf.append( "   " + String.format( "%.5f", entry.score ));
-			    }
-			    buf.append( "\n" );
-			}
-		    }
-		    else {
-			buf.append( "\nFound 0 matching document(s)\n\n" );
-		    }
-		    resultWindow.setText( buf.toString() );
-		    resultWindow.setCaretPosition( 0 );
+		    startSearch( new SearchWorker( new Query( queryString ), "", null ));
 		}
 	    };
 	queryWindow.registerKeyboardAction( search,
@@ -220,47 +194,20 @@ public class SearchGUI extends JFrame {
 	Action relevanceFeedbackSearch = new AbstractAction() { 
 		public void actionPerformed( ActionEvent e ) {
 		    // Check that a ranked search has been made prior to the relevance feedback
-		    StringBuffer buf = new StringBuffer();
 		    if (( results != null ) && ( queryType == Index.RANKED_QUERY )) {
 			// Read user relevance feedback selections
 			boolean[] docIsRelevant = { false, false, false, false, false, false, false, false, false, false }; 
 			for ( int i = 0; i<10; i++ ) {
 			    docIsRelevant[i] = feedbackButton[i].isSelected(); 
 			}
-			// Expand the current search query with the documents marked as relevant 
-			query.relevanceFeedback( results, docIsRelevant, indexer );
-			
-			// Perform a new search with the weighted and expanded query. Access to the index is 
-			// synchronized since we don't want to search at the same time we're indexing new files
-			// (this might corrupt the index).
-			synchronized ( indexLock ) {
-			    results = indexer.index.search( query, queryType, rankingType, structureType );
-			}
-			buf.append( "\nSearch after relevance feedback:\n" );
-			buf.append( "\nFound " + results.size() + " matching document(s)\n\n" );
-			// for ( int i=0; i<results.size(); i++ ) {
-			int i = 0;
-			for (PostingsEntry entry : results) {
-				i++;
-			    buf.append( " " + i + ". " );
-			    // String filename = indexer.index.docIDs.get( "" + results.get(i).docID );
-			    String filename = indexer.index.docIDs.get( "" + entry.docID );
-			    if ( filename == null ) {
-				// buf.append( "" + results.get(i).docID );
-				buf.append( "" + entry.docID );
-			    }
-			    else {
-				buf.append( filename );
-			    }
-			    // buf.append( "   " + String.format( "%.5f", results.get(i).score ) + "\n" );
-			    buf.append( "   " + String.format( "%.5f", entry.score ) + "\n" );
-			}
+			// Expand a copy of the current search query with the documents
+			// marked as relevant, and search again
+			startSearch( new SearchWorker( query.copy(), "\nSearch after relevance feedback:\n", docIsRelevant ));
 		    }
 		    else {
-			buf.append( "\nThere was no returned ranked list to give feedback on.\n\n" );
+			resultWindow.setText( "\nThere was no returned ranked list to give feedback on.\n\n" );
+			resultWindow.setCaretPosition( 0 );
 		    }
-		    resultWindow.setText( buf.toString() );
-		    resultWindow.setCaretPosition( 0 );
 		}
 	    };
 	feedbackExecutor.addActionListener( relevanceFeedbackSearch ); 	
@@ -304,6 +251,13 @@ public class SearchGUI extends JFrame {
 	    };
 	rankedItem.addActionListener( setRankedQuery );
 
+	Action setCommonTerms = new AbstractAction() {
+		public void actionPerformed( ActionEvent e ) {
+		    indexer.setCommonTermsMode( commonTermsItem.isSelected() );
+		}
+	    };
+	commonTermsItem.addActionListener( setCommonTerms );
+
 	Action setTfidfRanking = new AbstractAction() {
 		public void actionPerformed( ActionEvent e ) {
 			rankingType = Index.TF_IDF;
@@ -376,6 +330,163 @@ public class SearchGUI extends JFrame {
     /* ----------------------------------------------- */
 
 
+    /**
+     *   Cancels the running search, if any, and starts a new one.
+     */
+    private void startSearch( SearchWorker worker ) {
+	if ( searchWorker != null ) {
+	    searchWorker.cancelSearch();
+	}
+	searchWorker = worker;
+	resultWindow.setText( "\n  Searching..." );
+	worker.execute();
+    }
+
+
+    /**
+     *   Searches the index in the background and renders the results
+     *   page by page, the first page as soon as it is ready. Access to
+     *   the index is synchronized since we don't want to search at the
+     *   same time we're indexing new files (this might corrupt the
+     *   index). A search is cancelled when a new one starts; its
+     *   postings loops then stop at their next check.
+     */
+    private class SearchWorker extends SwingWorker<Collection<PostingsEntry>, String> {
+
+	private final Query query;
+	private final String heading;
+
+	/**  Feedback on the current results to expand the query with, or null. */
+	private final boolean[] docIsRelevant;
+	private final Collection<PostingsEntry> previousResults = results;
+
+	/**  Search settings when the search was started. */
+	private final int queryType = SearchGUI.this.queryType;
+	private final int rankingType = SearchGUI.this.rankingType;
+	private final int structureType = SearchGUI.this.structureType;
+
+	private final CancellationToken token = new CancellationToken();
+	private boolean rendered = false;
+
+	/**  The results, set before the first page is published. */
+	private volatile Collection<PostingsEntry> found = null;
+
+	SearchWorker( Query query, String heading, boolean[] docIsRelevant ) {
+	    this.query = query;
+	    this.heading = heading;
+	    this.docIsRelevant = docIsRelevant;
+	}
+
+	void cancelSearch() {
+	    token.cancel();
+	    cancel( false );
+	}
+
+	protected Collection<PostingsEntry> doInBackground() {
+	    token.enter();
+	    try {
+		synchronized ( indexLock ) {
+		    if ( docIsRelevant != null ) {
+			query.relevanceFeedback( previousResults, docIsRelevant, indexer );
+		    }
+		    long start_time = System.nanoTime();
+		    found = indexer.index.search( query, queryType, rankingType, structureType );
+		    long elapsed = System.nanoTime() - start_time;
+		    System.out.println( "Query took " + elapsed + " ns" );
+		}
+		StringBuilder page = new StringBuilder( heading );
+		int size = found == null ? 0 : found.size();
+		page.append( "\nFound " + size + " matching document(s)\n\n" );
+		if ( size == 0 ) {
+		    Query suggestion;
+		    synchronized ( indexLock ) {
+			suggestion = indexer.index.getSpellingSuggestion( query );
+		    }
+		    if ( suggestion != null ) {
+			page.append( "Did you mean:" );
+			for ( String term : suggestion.terms ) {
+			    page.append( " " + term );
+			}
+			page.append( "\n" );
+		    }
+		    publish( page.toString() );
+		    return found;
+		}
+		int i = 0;
+		for ( PostingsEntry entry : found ) {
+		    CancellationToken.check();
+		    i++;
+		    page.append( " " + i + ". " );
+		    String filename = indexer.index.getDocName( "" + entry.docID );
+		    if ( filename == null ) {
+			page.append( "" + entry.docID );
+		    }
+		    else {
+			page.append( filename );
+		    }
+		    if ( queryType == Index.RANKED_QUERY ) {
+			page.append( "   " + String.format( "%.5f", entry.score ));
+		    }
+		    page.append( "\n" );
+		    if ( i <= SNIPPET_RESULTS ) {
+			String snippet;
+			synchronized ( indexLock ) {
+			    snippet = indexer.index.getSnippet( entry.docID, query );
+			}
+			if ( snippet != null ) {
+			    page.append( "      " + snippet + "\n" );
+			}
+		    }
+		    if ( i == SNIPPET_RESULTS || i % PAGE_SIZE == 0 ) {
+			publish( page.toString() );
+			page = new StringBuilder();
+		    }
+		}
+		publish( page.toString() );
+		return found;
+	    }
+	    finally {
+		token.exit();
+	    }
+	}
+
+	protected void process( java.util.List<String> pages ) {
+	    if ( isCancelled() ) return;
+	    for ( String page : pages ) {
+		if ( !rendered ) {
+		    resultWindow.setText( page );
+		    resultWindow.setCaretPosition( 0 );
+		    rendered = true;
+		    // Feedback given from now on refers to these results
+		    results = found;
+		    SearchGUI.this.query = query;
+		}
+		else {
+		    resultWindow.append( page );
+		}
+	    }
+	}
+
+	protected void done() {
+	    if ( isCancelled() ) return;
+	    try {
+		results = get();
+		SearchGUI.this.query = query;
+	    }
+	    catch ( InterruptedException e ) {
+		Thread.currentThread().interrupt();
+	    }
+	    catch ( ExecutionException e ) {
+		e.getCause().printStackTrace();
+		resultWindow.setText( "\n  Search failed: " + e.getCause() );
+	    }
+	}
+    }
+
+
+    /* ----------------------------------------------- */
+
+
     /**
      *   Decodes the command line arguments.
      */
@@ -388,6 +499,31 @@ public class SearchGUI extends JFrame {
 		    dirNames.add( args[i++] );
 		}
 	    }
+	    else if ( "-r".equals( args[i] )) {
+		// Renumber documents by static rank when saving the index
+		i++;
+		indexer.setStaticRankOrder( true );
+	    }
+	    else if ( "-b".equals( args[i] )) {
+		// Build a bigram index alongside the unigrams
+		i++;
+		indexer.setBigrams( true );
+	    }
+	    else if ( "-n".equals( args[i] )) {
+		// Build a next-word index for frequent words
+		i++;
+		indexer.setNextWords( true );
+	    }
+	    else if ( "-verify".equals( args[i] )) {
+		// Check the checksums of the saved index
+		i++;
+		indexer.verifyStore();
+	    }
+	    else if ( "-s".equals( args[i] )) {
+		// Keep the documents for result snippets
+		i++;
+		indexer.setDocumentStore( true );
+	    }
 	    else {
 		System.err.println( "Unknown option: " + args[i] );
 		break;
@@ -19,6 +19,9 @@ public class SimpleTokenizer {
      */
     public static final int BUFFER_LENGTH = 10000;
 
+    /** Stands for any string in a query term, as in "statist*". */
+    public static final char WILDCARD = '*';
+
     /** The reader from where tokens are read. */
     Reader reader;
     
@@ -60,13 +63,13 @@ public class SimpleTokenizer {
 
     /**
      *  Normalizes strings by converting to lower-case and removing 
-     *  diacritics. Non-normalizable characters are translated into
-     *  whitespace.
+     *  diacritics. Non-normalizable characters other than the
+     *  wildcard are translated into whitespace.
      */
     public static String normalize( String s ) {
 	char[] buf = s.toCharArray(); 
 	for ( int i=0; i<buf.length; i++ ) {
-	    if ( !normalize( buf, i )) {
+	    if ( buf[i] != WILDCARD && !normalize( buf, i )) {
 		buf[i] = ' ';
 	    }
 	}
@@ -0,0 +1,300 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package ir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *   Spelling suggestions from the term dictionary by symmetric
+ *   deletion. Every string obtained by deleting up to
+ *   MAX_EDIT_DISTANCE characters from the first PREFIX_LENGTH
+ *   characters of a term points to that term. A misspelled word is
+ *   looked up by its own deletions, which finds every term within
+ *   the edit distance without comparing it to the whole dictionary.
+ *   The candidates are then checked by their true edit distance.
+ *
+ *   Confusions such as "a" for "ä" are single substitutions, so
+ *   "hjarta" finds "hjärta" at distance 1. Suggestions are ordered
+ *   by distance, then by document frequency.
+ *
+ *   On file (store/spelling) the layout is
+ *
+ *   <pre>
+ *   int      MAGIC, T (terms)
+ *   T times  UTF term, int df
+ *   int      D (deletions)
+ *   D times  UTF deletion, int count, int[count] term numbers
+ *   </pre>
+ */
+public class SpellingCorrector {
+
+    public static final int MAGIC = 0x5350454c;
+
+    /**  Largest edit distance of a suggestion. */
+    public static final int MAX_EDIT_DISTANCE = 2;
+
+    /**  Only this many leading characters are used for the deletions. */
+    public static final int PREFIX_LENGTH = 7;
+
+    /**  Where FileIndex looks for the spelling index. */
+    public static final String DEFAULT_FILE = "store/spelling";
+
+    /**  The dictionary, sorted. */
+    private String[] terms;
+
+    /**  Document frequency of each term, to prefer common words. */
+    private int[] df;
+
+    private HashMap<String, int[]> deletions = new HashMap<String, int[]>();
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *  Builds the spelling index of a sorted dictionary with the
+     *  document frequencies of its terms.
+     */
+    public SpellingCorrector( String[] terms, int[] df ) {
+	this.terms = terms;
+	this.df = df;
+	HashMap<String, List<Integer>> lists = new HashMap<String, List<Integer>>();
+	for ( int termID=0; termID<terms.length; termID++ ) {
+	    for ( String deletion : deletions( prefix( terms[termID] ))) {
+		List<Integer> list = lists.get( deletion );
+		if ( list == null ) {
+		    list = new ArrayList<Integer>( 1 );
+		    lists.put( deletion, list );
+		}
+		list.add( termID );
+	    }
+	}
+	for ( Map.Entry<String, List<Integer>> entry : lists.entrySet() ) {
+	    List<Integer> list = entry.getValue();
+	    int[] ids = new int[list.size()];
+	    for ( int i=0; i<ids.length; i++ ) {
+		ids[i] = list.get( i );
+	    }
+	    deletions.put( entry.getKey(), ids );
+	}
+    }
+
+    private SpellingCorrector() {
+    }
+
+
+    /**
+     *  Reads the given spelling index file, or returns null if it
+     *  does not exist or cannot be read.
+     */
+    public static SpellingCorrector open( String filename ) {
+	File f = new File( filename );
+	if ( !f.exists() ) return null;
+	DataInputStream in = null;
+	try {
+	    in = new DataInputStream( new BufferedInputStream( new FileInputStream( f )));
+	    if ( in.readInt() != MAGIC ) {
+		throw new IOException( filename + " is not a spelling index" );
+	    }
+	    SpellingCorrector corrector = new SpellingCorrector();
+	    int t = in.readInt();
+	    corrector.terms = new String[t];
+	    corrector.df = new int[t];
+	    for ( int i=0; i<t; i++ ) {
+		corrector.terms[i] = in.readUTF();
+		corrector.df[i] = in.readInt();
+	    }
+	    int d = in.readInt();
+	    for ( int i=0; i<d; i++ ) {
+		String deletion = in.readUTF();
+		int[] ids = new int[in.readInt()];
+		for ( int j=0; j<ids.length; j++ ) {
+		    ids[j] = in.readInt();
+		}
+		corrector.deletions.put( deletion, ids );
+	    }
+	    return corrector;
+	}
+	catch ( IOException e ) {
+	    System.err.println( e );
+	    return null;
+	}
+	finally {
+	    try {
+		if ( in != null ) in.close();
+	    }
+	    catch ( IOException e ) {
+		System.err.println( e );
+	    }
+	}
+    }
+
+    public void write( String filename ) throws IOException {
+	DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( filename )));
+	try {
+	    out.writeInt( MAGIC );
+	    out.writeInt( terms.length );
+	    for ( int i=0; i<terms.length; i++ ) {
+		out.writeUTF( terms[i] );
+		out.writeInt( df[i] );
+	    }
+	    out.writeInt( deletions.size() );
+	    for ( Map.Entry<String, int[]> entry : deletions.entrySet() ) {
+		out.writeUTF( entry.getKey() );
+		out.writeInt( entry.getValue().length );
+		for ( int id : entry.getValue() ) {
+		    out.writeInt( id );
+		}
+	    }
+	}
+	finally {
+	    out.close();
+	}
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    public boolean contains( String term ) {
+	return Arrays.binarySearch( terms, term ) >= 0;
+    }
+
+
+    /**
+     *  The terms within MAX_EDIT_DISTANCE of a word, best first, at
+     *  most @code{max} of them. A word in the dictionary is its own
+     *  only suggestion.
+     */
+    public List<String> suggest( String word, int max ) {
+	List<String> suggestions = new ArrayList<String>();
+	if ( contains( word )) {
+	    suggestions.add( word );
+	    return suggestions;
+	}
+	final HashMap<Integer, Integer> distance = new HashMap<Integer, Integer>();
+	for ( String deletion : deletions( prefix( word ))) {
+	    int[] ids = deletions.get( deletion );
+	    if ( ids == null ) continue;
+	    for ( int id : ids ) {
+		if ( distance.containsKey( id )) continue;
+		if ( Math.abs( terms[id].length() - word.length() ) > MAX_EDIT_DISTANCE ) {
+		    distance.put( id, Integer.MAX_VALUE );
+		}
+		else {
+		    distance.put( id, distance( word, terms[id] ));
+		}
+	    }
+	}
+	List<Integer> candidates = new ArrayList<Integer>();
+	for ( Map.Entry<Integer, Integer> entry : distance.entrySet() ) {
+	    if ( entry.getValue() <= MAX_EDIT_DISTANCE ) {
+		candidates.add( entry.getKey() );
+	    }
+	}
+	Collections.sort( candidates, new Comparator<Integer>() {
+		public int compare( Integer t1, Integer t2 ) {
+		    int c = distance.get( t1 ) - distance.get( t2 );
+		    return c != 0 ? c : df[t2] - df[t1];
+		}
+	    });
+	for ( int i=0; i<candidates.size() && i<max; i++ ) {
+	    suggestions.add( terms[candidates.get( i )] );
+	}
+	return suggestions;
+    }
+
+
+    /**
+     *  The query with every unknown term replaced by its best
+     *  suggestion, or null if no term could be corrected. Wildcard
+     *  terms are left as they are.
+     */
+    public Query correct( Query query ) {
+	Query corrected = query.copy();
+	corrected.terms = new LinkedList<String>();
+	boolean changed = false;
+	for ( String term : query.terms ) {
+	    if ( !Query.isWildcard( term ) && !contains( term )) {
+		List<String> suggestions = suggest( term, 1 );
+		if ( !suggestions.isEmpty() ) {
+		    term = suggestions.get( 0 );
+		    changed = true;
+		}
+	    }
+	    corrected.terms.add( term );
+	}
+	return changed ? corrected : null;
+    }
+
+
+    private static String prefix( String word ) {
+	return word.length() > PREFIX_LENGTH ? word.substring( 0, PREFIX_LENGTH ) : word;
+    }
+
+
+    /**
+     *  The word and every string obtained by deleting up to
+     *  MAX_EDIT_DISTANCE of its characters.
+     */
+    private static HashSet<String> deletions( String word ) {
+	HashSet<String> result = new HashSet<String>();
+	result.add( word );
+	List<String> previous = Collections.singletonList( word );
+	for ( int d=0; d<MAX_EDIT_DISTANCE; d++ ) {
+	    List<String> next = new ArrayList<String>();
+	    for ( String s : previous ) {
+		for ( int i=0; i<s.length(); i++ ) {
+		    String deleted = s.substring( 0, i ) + s.substring( i+1 );
+		    if ( result.add( deleted )) {
+			next.add( deleted );
+		    }
+		}
+	    }
+	    previous = next;
+	}
+	return result;
+    }
+
+
+    /**
+     *  The edit distance between two words, counting insertions,
+     *  deletions, substitutions and transpositions of adjacent
+     *  characters.
+     */
+    static int distance( String a, String b ) {
+	int[][] d = new int[a.length()+1][b.length()+1];
+	for ( int i=0; i<=a.length(); i++ ) d[i][0] = i;
+	for ( int j=0; j<=b.length(); j++ ) d[0][j] = j;
+	for ( int i=1; i<=a.length(); i++ ) {
+	    for ( int j=1; j<=b.length(); j++ ) {
+		int cost = a.charAt( i-1 ) == b.charAt( j-1 ) ? 0 : 1;
+		d[i][j] = Math.min( Math.min( d[i-1][j] + 1, d[i][j-1] + 1 ), d[i-1][j-1] + cost );
+		if ( i > 1 && j > 1 && a.charAt( i-1 ) == b.charAt( j-2 ) && a.charAt( i-2 ) == b.charAt( j-1 )) {
+		    d[i][j] = Math.min( d[i][j], d[i-2][j-2] + 1 );
+		}
+	    }
+	}
+	return d[a.length()][b.length()];
+    }
+}
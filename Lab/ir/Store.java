@@ -0,0 +1,294 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package ir;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ *   Commits the files of an index to store/ so that a crash never
+ *   leaves a half written store behind. The index is written to
+ *   store.tmp/, every file is synced to disk, and a MANIFEST with
+ *   the length and CRC32 checksum of each file is written last, to
+ *   MANIFEST.tmp first and then renamed, so that a MANIFEST is always
+ *   complete. It ends with the number of files it lists. The old
+ *   store is then moved to store.old/ and store.tmp/ renamed to
+ *   store/.
+ *
+ *   At startup, recover() finishes or rolls back a commit that was
+ *   interrupted, and verify() checks the store against its manifest:
+ *   quickly by the file lengths, or fully by the checksums.
+ */
+public class Store {
+
+	public static final String DIRECTORY = "store";
+	public static final String STAGING = "store.tmp";
+	public static final String PREVIOUS = "store.old";
+	public static final String MANIFEST = "MANIFEST";
+
+	/**  First line of a manifest. */
+	private static final String MANIFEST_VERSION = "manifest 1";
+
+	/**  Start of the last line of a manifest, followed by the number of files. */
+	private static final String MANIFEST_END = "end ";
+
+	/**
+	 *  The path in the staging directory of a store path, such as
+	 *  store.tmp/index for store/index.
+	 */
+	public static String staging(String path) {
+		if (!path.startsWith(DIRECTORY + "/")) {
+			throw new IllegalArgumentException(path + " is not in " + DIRECTORY);
+		}
+		return STAGING + path.substring(DIRECTORY.length());
+	}
+
+	/**
+	 *  Empties the staging directory, creating it if needed, except
+	 *  for the given store paths.
+	 */
+	public static void prepareStaging(String... keep) throws IOException {
+		File staging = new File(STAGING);
+		if (!staging.isDirectory() && !staging.mkdirs()) {
+			throw new IOException("Cannot create " + STAGING);
+		}
+		Collection<String> kept = Arrays.asList(keep);
+		File[] files = staging.listFiles();
+		if (files == null) return;
+		for (File f : files) {
+			if (!kept.contains(DIRECTORY + "/" + f.getName())) {
+				delete(f.toPath());
+			}
+		}
+	}
+
+	/**
+	 *  Makes the staging directory the store: syncs its files,
+	 *  writes the manifest and swaps the directories.
+	 */
+	public static void commit() throws IOException {
+		File staging = new File(STAGING);
+		File[] files = staging.listFiles();
+		if (files == null) {
+			throw new IOException("Nothing to commit in " + STAGING);
+		}
+		Arrays.sort(files);
+		File partial = new File(staging, MANIFEST + ".tmp");
+		BufferedWriter out = new BufferedWriter(new FileWriter(partial));
+		try {
+			out.write(MANIFEST_VERSION + "\n");
+			int count = 0;
+			for (File f : files) {
+				if (f.getName().startsWith(MANIFEST) || !f.isFile()) continue;
+				out.write(f.getName() + " " + f.length() + " " + Long.toHexString(sync(f)) + "\n");
+				count++;
+			}
+			out.write(MANIFEST_END + count + "\n");
+		} finally {
+			out.close();
+		}
+		sync(partial);
+		// The commit point: recover() keeps a staging directory with
+		// a MANIFEST, and the rename makes it appear whole
+		Files.move(partial.toPath(), new File(staging, MANIFEST).toPath(), StandardCopyOption.ATOMIC_MOVE);
+		syncDirectory(staging);
+
+		Path store = Paths.get(DIRECTORY);
+		Path previous = Paths.get(PREVIOUS);
+		if (Files.exists(previous)) delete(previous);
+		if (Files.exists(store)) Files.move(store, previous);
+		Files.move(Paths.get(STAGING), store);
+		syncDirectory(new File("."));
+		delete(previous);
+	}
+
+	/**
+	 *  Completes or undoes a commit interrupted by a crash, and
+	 *  removes the leftovers of an interrupted dump.
+	 */
+	public static void recover() {
+		try {
+			Path store = Paths.get(DIRECTORY);
+			Path staging = Paths.get(STAGING);
+			Path previous = Paths.get(PREVIOUS);
+			if (!Files.exists(store)) {
+				if (Files.exists(staging.resolve(MANIFEST))) {
+					// Crashed between the two renames
+					Files.move(staging, store);
+				} else if (Files.exists(previous)) {
+					Files.move(previous, store);
+				}
+			}
+			if (Files.exists(staging) && !Files.exists(staging.resolve(MANIFEST))) {
+				System.err.println("Removing the incomplete index in " + STAGING);
+			}
+			if (Files.exists(staging)) delete(staging);
+			if (Files.exists(previous)) delete(previous);
+		} catch (IOException e) {
+			System.err.println(e);
+		}
+	}
+
+	/**
+	 *  Checks the store against its manifest: that every file is
+	 *  there with the right length and, if @code{full} is set, the
+	 *  right checksum. Problems are reported on standard error. A
+	 *  store written before manifests is accepted with a warning.
+	 */
+	public static boolean verify(boolean full) {
+		File manifest = new File(DIRECTORY, MANIFEST);
+		if (!manifest.exists()) {
+			System.err.println("Warning: " + DIRECTORY + " has no " + MANIFEST + " and cannot be verified");
+			return true;
+		}
+		Map<String, long[]> entries = new TreeMap<String, long[]>();
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new FileReader(manifest));
+			if (!MANIFEST_VERSION.equals(in.readLine())) {
+				System.err.println("Unknown manifest version in " + DIRECTORY);
+				return false;
+			}
+			String line;
+			int count = -1;
+			while ((line = in.readLine()) != null) {
+				if (count >= 0) {
+					throw new IllegalArgumentException("lines after the end");
+				}
+				if (line.startsWith(MANIFEST_END)) {
+					count = Integer.parseInt(line.substring(MANIFEST_END.length()));
+					continue;
+				}
+				// The name may contain spaces, the numbers do not
+				int crcStart = line.lastIndexOf(' ');
+				int lengthStart = line.lastIndexOf(' ', crcStart - 1);
+				entries.put(line.substring(0, lengthStart), new long[] {
+					Long.parseLong(line.substring(lengthStart + 1, crcStart)),
+					Long.parseLong(line.substring(crcStart + 1), 16) });
+			}
+			if (count != entries.size()) {
+				System.err.println("Incomplete manifest in " + DIRECTORY);
+				return false;
+			}
+		} catch (IOException e) {
+			System.err.println(e);
+			return false;
+		} catch (RuntimeException e) {
+			System.err.println("Damaged manifest in " + DIRECTORY + ": " + e);
+			return false;
+		} finally {
+			try {
+				if (in != null) in.close();
+			} catch (IOException e) {
+				System.err.println(e);
+			}
+		}
+		boolean ok = true;
+		for (Map.Entry<String, long[]> entry : entries.entrySet()) {
+			File f = new File(DIRECTORY, entry.getKey());
+			if (!f.isFile() || f.length() != entry.getValue()[0]) {
+				System.err.println(f + " is missing or has the wrong length");
+				ok = false;
+			} else if (full) {
+				try {
+					if (checksum(f) != entry.getValue()[1]) {
+						System.err.println(f + " has the wrong checksum");
+						ok = false;
+					}
+				} catch (IOException e) {
+					System.err.println(e);
+					ok = false;
+				}
+			}
+		}
+		return ok;
+	}
+
+	/**
+	 *  Forces a file to disk and returns its checksum.
+	 */
+	private static long sync(File f) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(f, "rw");
+		try {
+			file.getChannel().force(true);
+		} finally {
+			file.close();
+		}
+		return checksum(f);
+	}
+
+	private static long checksum(File f) throws IOException {
+		CRC32 crc = new CRC32();
+		InputStream in = new FileInputStream(f);
+		try {
+			byte[] buf = new byte[1 << 16];
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				crc.update(buf, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 *  Makes renames and new files in a directory durable, where the
+	 *  platform allows directories to be synced.
+	 */
+	private static void syncDirectory(File dir) {
+		FileChannel channel = null;
+		try {
+			channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+			channel.force(true);
+		} catch (IOException e) {
+			// Not supported on all platforms
+		} finally {
+			try {
+				if (channel != null) channel.close();
+			} catch (IOException e) {
+				System.err.println(e);
+			}
+		}
+	}
+
+	private static void delete(Path path) throws IOException {
+		if (!Files.exists(path)) return;
+		Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				if (e != null) throw e;
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ *   Evaluates a query on subphrase structure: documents containing
+ *   the whole phrase come first, then those containing the longest
+ *   remaining subphrases, and so on down to single terms. Each length
+ *   forms a tier of results ordered by score, and shorter subphrases
+ *   are only tried while fewer than k documents have been found.
+ *
+ *   The postings of every term are fetched once, and the matches of
+ *   each subphrase are kept, since phrase(s, L) is computed from
+ *   phrase(s, L-1). Evaluating the full phrase thus leaves all its
+ *   prefixes ready for the shorter subphrases.
+ */
+public class SubphraseEvaluator {
+
+    /**  Default number of results before shorter subphrases are skipped. */
+    public static final int MIN_RESULTS = 10;
+
+    private final Index index;
+    private final String[] terms;
+
+    /**  Postings of each distinct term, fetched with positions. */
+    private final HashMap<String, PostingsList> termPostings = new HashMap<String, PostingsList>();
+
+    /**  phrases[s][L] holds the matches of terms s .. s+L-1, or null. */
+    private final PostingsList[][] phrases;
+
+
+    /* --------------------------------------------- */
+
+
+    public SubphraseEvaluator( Index index, List<String> terms ) {
+	this.index = index;
+	this.terms = terms.toArray( new String[terms.size()] );
+	phrases = new PostingsList[this.terms.length][this.terms.length+1];
+    }
+
+
+    /**
+     *  Returns the matching documents, tier by tier from the longest
+     *  subphrase, stopping after the first tier that brings the
+     *  number of results up to @code{k}. The score of a document is
+     *  the summed score of the terms of the longest subphrase it
+     *  contains.
+     */
+    public List<PostingsEntry> evaluate( int k ) {
+	List<PostingsEntry> results = new ArrayList<PostingsEntry>();
+	HashSet<Integer> found = new HashSet<Integer>();
+	for ( int length=terms.length; length>=1 && results.size()<k; length-- ) {
+	    List<PostingsEntry> tier = new ArrayList<PostingsEntry>();
+	    HashMap<Integer, PostingsEntry> best = new HashMap<Integer, PostingsEntry>();
+	    for ( int start=0; start+length<=terms.length; start++ ) {
+		CancellationToken.check();
+		for ( PostingsEntry entry : phrase( start, length )) {
+		    if ( found.contains( entry.docID )) continue;
+		    PostingsEntry previous = best.get( entry.docID );
+		    if ( previous == null ) {
+			previous = new PostingsEntry( entry.docID, entry.score );
+			best.put( entry.docID, previous );
+			tier.add( previous );
+		    }
+		    else if ( entry.score > previous.score ) {
+			previous.score = entry.score;
+		    }
+		}
+	    }
+	    Collections.sort( tier, PostingsEntry.SCORE_COMPARATOR_ASCENDING );
+	    for ( PostingsEntry entry : tier ) {
+		found.add( entry.docID );
+	    }
+	    results.addAll( tier );
+	}
+	return results;
+    }
+
+
+    /**
+     *  The documents containing terms s .. s+L-1 as a phrase, with
+     *  the positions where the phrase starts.
+     */
+    private PostingsList phrase( int start, int length ) {
+	if ( phrases[start][length] == null ) {
+	    if ( length == 1 ) {
+		phrases[start][length] = term( terms[start] );
+	    }
+	    else {
+		PostingsList prefix = phrase( start, length-1 );
+		if ( prefix.size() == 0 ) {
+		    phrases[start][length] = prefix;
+		}
+		else {
+		    phrases[start][length] =
+			prefix.intersect( term( terms[start+length-1] ), length-1, length-1 );
+		}
+	    }
+	}
+	return phrases[start][length];
+    }
+
+
+    private PostingsList term( String term ) {
+	PostingsList postings = termPostings.get( term );
+	if ( postings == null ) {
+	    postings = index.getPostings( term );
+	    if ( postings == null ) {
+		postings = new PostingsList();
+	    }
+	    termPostings.put( term, postings );
+	}
+	return postings;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *   Scores documents for a weighted query term at a time. The score
+ *   of document d is the sum over the query terms t of
+ *
+ *     weight(t) * tfidf(t,d),
+ *
+ *   accumulated in an array indexed by docID. Terms are processed by
+ *   descending weight, and terms of equal weight rarest first, which
+ *   allows two kinds of pruning for large expanded queries:
+ *
+ *   - terms weighing less than MIN_WEIGHT_RATIO of the heaviest term
+ *     are skipped, and
+ *   - once MAX_ACCUMULATORS documents have a score, the remaining
+ *     terms only add to those documents instead of bringing in new
+ *     ones.
+ */
+public class WeightedScorer {
+
+    /**  Terms lighter than this share of the heaviest term are dropped. */
+    public static final double MIN_WEIGHT_RATIO = 0.01;
+
+    /**  Number of scored documents after which no new ones are added. */
+    public static final int MAX_ACCUMULATORS = 10000;
+
+    /**
+     *   Where the scored postings come from.
+     */
+    public interface Source {
+
+	/**
+	 *   The postings of a term, scored by tf-idf. If
+	 *   @code{candidates} is not null, only those documents are
+	 *   needed.
+	 */
+	public PostingsList postings( String term, PostingsList candidates );
+
+	/**  Used to size the accumulators. */
+	public int numberOfDocuments();
+    }
+
+    private final Source source;
+
+    /**  Query terms with their summed weights, in order of addition. */
+    private final LinkedHashMap<String, Double> weights = new LinkedHashMap<String, Double>();
+
+    /**  Terms that may only add to documents found by other terms. */
+    private final LinkedHashMap<String, Boolean> optional = new LinkedHashMap<String, Boolean>();
+
+
+    /* --------------------------------------------- */
+
+
+    public WeightedScorer( Source source ) {
+	this.source = source;
+    }
+
+    /**
+     *   Adds a query term. Weights of repeated terms are summed.
+     */
+    public void add( String term, double weight ) {
+	add( term, weight, false );
+    }
+
+    /**
+     *   Adds a query term which, if @code{onlyBoosts} is set, only
+     *   adds to the scores of documents matched by other terms.
+     */
+    public void add( String term, double weight, boolean onlyBoosts ) {
+	Double old = weights.get( term );
+	weights.put( term, old == null ? weight : old + weight );
+	Boolean wasOptional = optional.get( term );
+	optional.put( term, onlyBoosts && ( wasOptional == null || wasOptional ));
+    }
+
+    /**
+     *   Adds all terms of the query with their weights.
+     */
+    public void addAll( Query query ) {
+	for ( int i=0; i<query.terms.size(); i++ ) {
+	    add( query.terms.get( i ), i < query.weights.size() ? query.weights.get( i ) : 1 );
+	}
+    }
+
+
+    /**
+     *   Scores the documents. The result holds every document with
+     *   a score, in docID order.
+     */
+    public PostingsList score() {
+	List<Map.Entry<String, Double>> terms = new ArrayList<Map.Entry<String, Double>>( weights.entrySet() );
+	Collections.sort( terms, new Comparator<Map.Entry<String, Double>>() {
+		public int compare( Map.Entry<String, Double> e1, Map.Entry<String, Double> e2 ) {
+		    // Required terms first, then by descending weight
+		    int c = optional.get( e1.getKey() ).compareTo( optional.get( e2.getKey() ));
+		    return c != 0 ? c : Double.compare( e2.getValue(), e1.getValue() );
+		}
+	    });
+	double maxWeight = 0;
+	for ( Map.Entry<String, Double> term : terms ) {
+	    maxWeight = Math.max( maxWeight, term.getValue() );
+	}
+
+	int n = source.numberOfDocuments();
+	double[] accumulator = new double[Math.max( n, 16 )];
+	boolean[] touched = new boolean[accumulator.length];
+	int[] docs = new int[64];
+	int numberOfDocs = 0;
+	int i = 0;
+	while ( i < terms.size() ) {
+	    CancellationToken.check();
+	    double weight = terms.get( i ).getValue();
+	    boolean onlyBoosts = optional.get( terms.get( i ).getKey() );
+	    // Required terms of equal weight are fetched together and
+	    // taken rarest first, so that a common term cannot fill the
+	    // accumulators before the rare ones are seen.
+	    int end = i+1;
+	    while ( !onlyBoosts && end < terms.size() && !optional.get( terms.get( end ).getKey() )
+		    && terms.get( end ).getValue() == weight ) {
+		end++;
+	    }
+	    List<PostingsList> group = new ArrayList<PostingsList>();
+	    if ( weight > 0 && weight >= MIN_WEIGHT_RATIO * maxWeight && ( !onlyBoosts || numberOfDocs > 0 )) {
+		for ( int k=i; k<end; k++ ) {
+		    PostingsList postings = source.postings( terms.get( k ).getKey(), onlyBoosts ? toList( docs, numberOfDocs ) : null );
+		    if ( postings != null && postings.size() > 0 ) group.add( postings );
+		}
+	    }
+	    i = end;
+	    Collections.sort( group, BY_SIZE );
+	    for ( PostingsList postings : group ) {
+		boolean full = onlyBoosts || numberOfDocs >= MAX_ACCUMULATORS;
+		for ( PostingsEntry entry : postings ) {
+		    int d = entry.docID;
+		    if ( d >= accumulator.length ) {
+			if ( full ) continue;
+			int size = Math.max( 2*accumulator.length, d+1 );
+			accumulator = Arrays.copyOf( accumulator, size );
+			touched = Arrays.copyOf( touched, size );
+		    }
+		    if ( !touched[d] ) {
+			if ( full ) continue;
+			touched[d] = true;
+			if ( numberOfDocs == docs.length ) {
+			    docs = Arrays.copyOf( docs, 2*docs.length );
+			}
+			docs[numberOfDocs++] = d;
+		    }
+		    accumulator[d] += weight * entry.score;
+		}
+	    }
+	}
+
+	PostingsList result = new PostingsList();
+	for ( int k=0; k<numberOfDocs; k++ ) {
+	    result.add( new PostingsEntry( docs[k], accumulator[docs[k]] ));
+	}
+	return result;
+    }
+
+
+    /**  Orders postings lists by ascending length. */
+    private static final Comparator<PostingsList> BY_SIZE = new Comparator<PostingsList>() {
+	public int compare( PostingsList p1, PostingsList p2 ) {
+	    return p1.size() - p2.size();
+	}
+    };
+
+    private static PostingsList toList( int[] docs, int numberOfDocs ) {
+	PostingsList list = new PostingsList();
+	for ( int k=0; k<numberOfDocs; k++ ) {
+	    list.add( new PostingsEntry( docs[k], 0 ));
+	}
+	return list;
+    }
+}
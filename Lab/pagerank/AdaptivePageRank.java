@@ -0,0 +1,94 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package pagerank;
+
+import java.util.Arrays;
+
+/**
+ *   Adaptive PageRank (Kamvar, Haveliwala and Golub): power iteration
+ *   that stops recomputing documents whose score has converged. Most
+ *   documents converge long before the few slow ones, so later
+ *   iterations touch only a small part of the graph. Frozen documents
+ *   still pass on their (fixed) score through their outlinks.
+ *
+ *   A document is frozen when its change is below nodeTolerance times
+ *   its score. Once the active documents have converged, one full
+ *   sweep checks the whole vector; if that fails, everything is
+ *   unfrozen and iteration continues.
+ */
+public class AdaptivePageRank extends SequentialSolver {
+
+    /**  Relative per-document tolerance; defaults to epsilon. */
+    double nodeTolerance = -1;
+
+    public AdaptivePageRank( LinkGraph graph, double bored ) {
+	super( graph, bored );
+    }
+
+    public AdaptivePageRank setNodeTolerance( double nodeTolerance ) {
+	this.nodeTolerance = nodeTolerance;
+	return this;
+    }
+
+    public String getName() {
+	return "adaptive";
+    }
+
+    public double[] solve( double[] start ) {
+	int n = graph.numberOfDocs;
+	int[] offsets = graph.offsets;
+	int[] inOffsets = graph.inOffsets;
+	int[] sources = graph.sources;
+	double tolerance = nodeTolerance > 0 ? nodeTolerance : epsilon;
+	double[] x = Arrays.copyOf( start, n );
+	PowerIteration.normalize( x );
+	double[] xNew = new double[n];
+	boolean[] frozen = new boolean[n];
+	boolean checking = false;
+	iterations = 0;
+	while ( iterations < maxIterations ) {
+	    double jump = ( bored + (1-bored)*sinkMass( x )) / n;
+	    double change = 0;
+	    int active = 0;
+	    for ( int j=0; j<n; j++ ) {
+		if ( frozen[j] && !checking ) {
+		    xNew[j] = x[j];
+		    continue;
+		}
+		double s = 0;
+		for ( int k=inOffsets[j]; k<inOffsets[j+1]; k++ ) {
+		    int i = sources[k];
+		    s += x[i] / ( offsets[i+1] - offsets[i] );
+		}
+		xNew[j] = jump + (1-bored)*s;
+		double diff = Math.abs( xNew[j] - x[j] );
+		change += diff;
+		frozen[j] = diff < tolerance * xNew[j];
+		active++;
+	    }
+	    double[] tmp = x;
+	    x = xNew;
+	    xNew = tmp;
+	    iterations++;
+	    if ( verbose ) {
+		System.err.println( getName() + " iteration " + iterations + ": change " + change +
+				    ", " + active + " active documents" );
+	    }
+	    if ( change <= epsilon ) {
+		if ( checking ) break;
+		// Verify with a sweep over all documents
+		checking = true;
+	    }
+	    else if ( checking ) {
+		checking = false;
+		Arrays.fill( frozen, false );
+	    }
+	}
+	PowerIteration.normalize( x );
+	return x;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package pagerank;
+
+import java.util.Arrays;
+
+/**
+ *   Power iteration accelerated by periodic extrapolation (Kamvar,
+ *   Haveliwala, Manning and Golub). Every @code{period} iterations the
+ *   last iterates are combined into an estimate with the components
+ *   along the second and third eigenvectors removed:
+ *
+ *   AITKEN uses the last three iterates, componentwise
+ *   x* = x(k-2) - g*g/h with g = x(k-1)-x(k-2) and
+ *   h = x(k)-2x(k-1)+x(k-2).
+ *
+ *   QUADRATIC uses the last four iterates and a small least squares
+ *   problem to fit a polynomial in the matrix.
+ */
+public class ExtrapolatedPowerIteration extends SequentialSolver {
+
+    public static final int AITKEN = 0;
+    public static final int QUADRATIC = 1;
+
+    final int method;
+
+    /**  Extrapolate every this many iterations. */
+    int period = 10;
+
+
+    public ExtrapolatedPowerIteration( LinkGraph graph, double bored, int method ) {
+	super( graph, bored );
+	this.method = method;
+    }
+
+    public ExtrapolatedPowerIteration setPeriod( int period ) {
+	this.period = Math.max( 4, period );
+	return this;
+    }
+
+    public String getName() {
+	return method == AITKEN ? "Aitken extrapolation" : "quadratic extrapolation";
+    }
+
+    public double[] solve( double[] start ) {
+	int n = graph.numberOfDocs;
+	// history[0] is the current iterate, history[3] the oldest
+	double[][] history = new double[4][];
+	for ( int h=0; h<4; h++ ) {
+	    history[h] = new double[n];
+	}
+	System.arraycopy( start, 0, history[0], 0, n );
+	PowerIteration.normalize( history[0] );
+	double change = Double.MAX_VALUE;
+	int sinceExtrapolation = 0;
+	iterations = 0;
+	while ( iterations < maxIterations && change > epsilon ) {
+	    double[] oldest = history[3];
+	    history[3] = history[2];
+	    history[2] = history[1];
+	    history[1] = history[0];
+	    history[0] = oldest;
+	    change = jacobiStep( history[1], history[0] );
+	    iterations++;
+	    sinceExtrapolation++;
+	    report( change );
+	    if ( change > epsilon && sinceExtrapolation >= period ) {
+		if ( method == AITKEN ) {
+		    aitken( history[0], history[1], history[2] );
+		}
+		else {
+		    quadratic( history[0], history[1], history[2], history[3] );
+		}
+		sinceExtrapolation = 0;
+	    }
+	}
+	PowerIteration.normalize( history[0] );
+	return history[0];
+    }
+
+
+    /**
+     *   Replaces x with the Aitken estimate from x(k-2), x(k-1), x(k).
+     */
+    private void aitken( double[] x, double[] x1, double[] x2 ) {
+	for ( int i=0; i<x.length; i++ ) {
+	    double g = x1[i] - x2[i];
+	    double h = x[i] - 2*x1[i] + x2[i];
+	    if ( Math.abs( h ) > 1e-300 ) {
+		double estimate = x2[i] - g*g/h;
+		if ( estimate > 0 ) x[i] = estimate;
+	    }
+	}
+	PowerIteration.normalize( x );
+    }
+
+
+    /**
+     *   Replaces x with the quadratic extrapolation from x(k-3) .. x(k).
+     */
+    private void quadratic( double[] x, double[] x1, double[] x2, double[] x3 ) {
+	// y2 = x(k-2)-x(k-3), y1 = x(k-1)-x(k-3), y0 = x(k)-x(k-3)
+	double a = 0, b = 0, c = 0, p = 0, q = 0;
+	for ( int i=0; i<x.length; i++ ) {
+	    double y2 = x2[i] - x3[i];
+	    double y1 = x1[i] - x3[i];
+	    double y0 = x[i] - x3[i];
+	    a += y2*y2;
+	    b += y2*y1;
+	    c += y1*y1;
+	    p += y2*y0;
+	    q += y1*y0;
+	}
+	double det = a*c - b*b;
+	if ( Math.abs( det ) < 1e-300 ) return;
+	// Least squares solution of [y2 y1] (g1, g2) = -y0, with g3 = 1
+	double g1 = ( -p*c + q*b ) / det;
+	double g2 = ( -q*a + p*b ) / det;
+	double b0 = g1 + g2 + 1;
+	double b1 = g2 + 1;
+	for ( int i=0; i<x.length; i++ ) {
+	    double estimate = b0*x2[i] + b1*x1[i] + x[i];
+	    x[i] = Math.max( 0, estimate );
+	}
+	PowerIteration.normalize( x );
+    }
+}
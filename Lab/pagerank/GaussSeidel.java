@@ -0,0 +1,56 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package pagerank;
+
+import java.util.Arrays;
+
+/**
+ *   Gauss-Seidel iteration: like power iteration, but each document
+ *   is updated in place, so documents later in the sweep already see
+ *   the new values of earlier ones. This usually needs about half as
+ *   many sweeps. It is inherently sequential.
+ */
+public class GaussSeidel extends SequentialSolver {
+
+    public GaussSeidel( LinkGraph graph, double bored ) {
+	super( graph, bored );
+    }
+
+    public String getName() {
+	return "Gauss-Seidel";
+    }
+
+    public double[] solve( double[] start ) {
+	int n = graph.numberOfDocs;
+	int[] offsets = graph.offsets;
+	int[] inOffsets = graph.inOffsets;
+	int[] sources = graph.sources;
+	double[] x = Arrays.copyOf( start, n );
+	PowerIteration.normalize( x );
+	double change = Double.MAX_VALUE;
+	iterations = 0;
+	while ( iterations < maxIterations && change > epsilon ) {
+	    double jump = ( bored + (1-bored)*sinkMass( x )) / n;
+	    change = 0;
+	    for ( int j=0; j<n; j++ ) {
+		double s = 0;
+		for ( int k=inOffsets[j]; k<inOffsets[j+1]; k++ ) {
+		    int i = sources[k];
+		    s += x[i] / ( offsets[i+1] - offsets[i] );
+		}
+		double value = jump + (1-bored)*s;
+		change += Math.abs( value - x[j] );
+		x[j] = value;
+	    }
+	    // In-place updates do not preserve the total mass
+	    PowerIteration.normalize( x );
+	    iterations++;
+	    report( change );
+	}
+	return x;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package pagerank;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ *   A loaded link graph saved as a binary file, so that repeated runs
+ *   need not parse the link file again. The layout (little endian) is
+ *
+ *   <pre>
+ *   int       MAGIC
+ *   int       n (documents), m (links), b (title bytes)
+ *   int[n+1]  LinkGraph offsets
+ *   int[m]    LinkGraph targets
+ *   int[n+1]  title starts
+ *   byte[b]   UTF-8 titles back to back
+ *   </pre>
+ *
+ *   Loading maps the file and copies the arrays out in bulk.
+ */
+class GraphSnapshot {
+
+    static final int MAGIC = 0x50524731;
+
+    LinkGraph graph;
+    TitleTable titles;
+
+
+    /* --------------------------------------------- */
+
+
+    static void save( String filename, LinkGraph graph, TitleTable titles ) throws IOException {
+	RandomAccessFile file = new RandomAccessFile( filename, "rw" );
+	try {
+	    file.setLength( 0 );
+	    FileChannel channel = file.getChannel();
+	    ByteBuffer buf = ByteBuffer.allocateDirect( 1 << 20 ).order( ByteOrder.LITTLE_ENDIAN );
+	    int n = graph.numberOfDocs;
+	    int m = graph.numberOfEdges();
+	    int b = titles.starts()[n];
+	    putInts( channel, buf, new int[] { MAGIC, n, m, b }, 4 );
+	    putInts( channel, buf, graph.offsets, n+1 );
+	    putInts( channel, buf, graph.targets, m );
+	    putInts( channel, buf, titles.starts(), n+1 );
+	    byte[] blob = titles.blob();
+	    for ( int k=0; k<b; ) {
+		buf.clear();
+		int count = Math.min( b-k, buf.capacity() );
+		buf.put( blob, k, count );
+		buf.flip();
+		while ( buf.hasRemaining() ) {
+		    channel.write( buf );
+		}
+		k += count;
+	    }
+	}
+	finally {
+	    file.close();
+	}
+    }
+
+
+    private static void putInts( FileChannel channel, ByteBuffer buf, int[] a, int count )
+	throws IOException {
+	for ( int k=0; k<count; ) {
+	    buf.clear();
+	    int c = Math.min( count-k, buf.capacity()/4 );
+	    buf.asIntBuffer().put( a, k, c );
+	    buf.limit( 4*c );
+	    while ( buf.hasRemaining() ) {
+		channel.write( buf );
+	    }
+	    k += c;
+	}
+    }
+
+
+    static GraphSnapshot load( String filename ) throws IOException {
+	RandomAccessFile file = new RandomAccessFile( filename, "r" );
+	try {
+	    FileChannel channel = file.getChannel();
+	    MappedByteBuffer map = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+	    map.order( ByteOrder.LITTLE_ENDIAN );
+	    IntBuffer ints = map.asIntBuffer();
+	    if ( ints.get() != MAGIC ) {
+		throw new IOException( filename + " is not a graph snapshot" );
+	    }
+	    int n = ints.get();
+	    int m = ints.get();
+	    int b = ints.get();
+	    int[] offsets = new int[n+1];
+	    int[] targets = new int[m];
+	    int[] starts = new int[n+1];
+	    ints.get( offsets );
+	    ints.get( targets );
+	    ints.get( starts );
+	    byte[] blob = new byte[b];
+	    map.position( 4*ints.position() );
+	    map.get( blob );
+
+	    GraphSnapshot snapshot = new GraphSnapshot();
+	    snapshot.graph = new LinkGraph( n, offsets, targets );
+	    snapshot.titles = new TitleTable( blob, starts, n );
+	    return snapshot;
+	}
+	finally {
+	    file.close();
+	}
+    }
+}
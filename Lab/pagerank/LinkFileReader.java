@@ -0,0 +1,224 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package pagerank;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ *   Parses link files with lines of the form "title;a,b,c," straight
+ *   from bytes read through a FileChannel, without creating Strings.
+ *
+ *   Large files are cut into one split per thread at line boundaries.
+ *   Each split is parsed into its own TitleTable and EdgeBuffer, and
+ *   the splits are then merged in file order. Since every split
+ *   numbers its titles in order of first appearance, the merged
+ *   numbering is the same as when reading the file sequentially.
+ */
+class LinkFileReader {
+
+    /**  Bytes read from the file at a time. */
+    static final int CHUNK_SIZE = 1 << 20;
+
+    /**  Files smaller than this are parsed by a single thread. */
+    static final long MIN_SPLIT_SIZE = 4 << 20;
+
+    /**
+     *   The result of parsing one split.
+     */
+    private static class Split {
+	TitleTable titles;
+	LinkGraph.EdgeBuffer edges = new LinkGraph.EdgeBuffer();
+	BitSet sources = new BitSet();
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *   Reads the link file, interning titles into @code{titles} and
+     *   appending the links to @code{edges}. If @code{sources} is not
+     *   null, the documents that have a line of their own are set in
+     *   it.
+     */
+    static void read( String filename, TitleTable titles, LinkGraph.EdgeBuffer edges,
+		      BitSet sources, int numberOfThreads ) throws IOException {
+	RandomAccessFile file = new RandomAccessFile( filename, "r" );
+	try {
+	    final FileChannel channel = file.getChannel();
+	    long length = channel.size();
+	    int numberOfSplits = (int) Math.max( 1, Math.min( numberOfThreads, length / MIN_SPLIT_SIZE ));
+	    if ( numberOfSplits == 1 ) {
+		Split split = new Split();
+		split.titles = titles;
+		split.edges = edges;
+		parse( channel, 0, length, split );
+		if ( sources != null ) sources.or( split.sources );
+		return;
+	    }
+
+	    final long[] bounds = new long[numberOfSplits+1];
+	    for ( int t=1; t<numberOfSplits; t++ ) {
+		bounds[t] = nextLineStart( channel, length*t/numberOfSplits );
+	    }
+	    bounds[numberOfSplits] = length;
+
+	    List<Callable<Split>> tasks = new ArrayList<Callable<Split>>();
+	    for ( int t=0; t<numberOfSplits; t++ ) {
+		final int s = t;
+		tasks.add( new Callable<Split>() {
+			public Split call() throws IOException {
+			    Split split = new Split();
+			    split.titles = new TitleTable();
+			    parse( channel, bounds[s], bounds[s+1], split );
+			    return split;
+			}
+		    });
+	    }
+	    ExecutorService pool = Executors.newFixedThreadPool( numberOfSplits );
+	    try {
+		for ( Future<Split> f : pool.invokeAll( tasks )) {
+		    merge( f.get(), titles, edges, sources );
+		}
+	    }
+	    catch ( InterruptedException e ) {
+		Thread.currentThread().interrupt();
+		throw new IOException( "Interrupted while reading " + filename );
+	    }
+	    catch ( ExecutionException e ) {
+		if ( e.getCause() instanceof IOException ) {
+		    throw (IOException) e.getCause();
+		}
+		throw new RuntimeException( e.getCause() );
+	    }
+	    finally {
+		pool.shutdown();
+	    }
+	}
+	finally {
+	    file.close();
+	}
+    }
+
+
+    /**
+     *   Renumbers a parsed split into the global table and buffer.
+     */
+    private static void merge( Split split, TitleTable titles, LinkGraph.EdgeBuffer edges,
+			       BitSet sources ) {
+	int[] global = new int[split.titles.size()];
+	for ( int doc=0; doc<global.length; doc++ ) {
+	    global[doc] = titles.intern( split.titles, doc );
+	}
+	for ( int k=0; k<split.edges.size; k++ ) {
+	    edges.add( global[split.edges.from[k]], global[split.edges.to[k]] );
+	}
+	if ( sources != null ) {
+	    for ( int doc = split.sources.nextSetBit( 0 ); doc >= 0; doc = split.sources.nextSetBit( doc+1 )) {
+		sources.set( global[doc] );
+	    }
+	}
+    }
+
+
+    /**
+     *   The position just after the first newline at or after @code{pos}.
+     */
+    private static long nextLineStart( FileChannel channel, long pos ) throws IOException {
+	ByteBuffer buf = ByteBuffer.allocate( 4096 );
+	long length = channel.size();
+	while ( pos < length ) {
+	    buf.clear();
+	    int n = channel.read( buf, pos );
+	    if ( n <= 0 ) break;
+	    for ( int k=0; k<n; k++ ) {
+		if ( buf.get( k ) == '\n' ) {
+		    return pos + k + 1;
+		}
+	    }
+	    pos += n;
+	}
+	return length;
+    }
+
+
+    /**
+     *   Parses the lines in [from, to) of the file into the split.
+     *   Lines longer than the buffer make the buffer grow.
+     */
+    private static void parse( FileChannel channel, long from, long to, Split split )
+	throws IOException {
+	byte[] buf = new byte[CHUNK_SIZE];
+	int len = 0;
+	long pos = from;
+	while ( true ) {
+	    if ( len == buf.length ) {
+		buf = Arrays.copyOf( buf, 2*buf.length );
+	    }
+	    int want = (int) Math.min( buf.length - len, to - pos );
+	    int n = 0;
+	    if ( want > 0 ) {
+		n = channel.read( ByteBuffer.wrap( buf, len, want ), pos );
+		if ( n < 0 ) n = 0;
+	    }
+	    pos += n;
+	    len += n;
+	    boolean last = pos >= to || n == 0;
+	    int lineStart = 0;
+	    for ( int k=0; k<len; k++ ) {
+		if ( buf[k] == '\n' ) {
+		    parseLine( buf, lineStart, k, split );
+		    lineStart = k+1;
+		}
+	    }
+	    if ( last ) {
+		if ( lineStart < len ) {
+		    parseLine( buf, lineStart, len, split );
+		}
+		return;
+	    }
+	    // Keep the incomplete last line for the next round
+	    System.arraycopy( buf, lineStart, buf, 0, len - lineStart );
+	    len -= lineStart;
+	}
+    }
+
+
+    /**
+     *   Parses "title;a,b,c," in buf[start, end). Empty link titles
+     *   are skipped and lines without ';' are ignored.
+     */
+    private static void parseLine( byte[] buf, int start, int end, Split split ) {
+	if ( end > start && buf[end-1] == '\r' ) end--;
+	int semi = start;
+	while ( semi < end && buf[semi] != ';' ) semi++;
+	if ( semi == end ) return;
+	int from = split.titles.intern( buf, start, semi - start );
+	split.sources.set( from );
+	int k = semi + 1;
+	while ( k < end ) {
+	    int tokenStart = k;
+	    while ( k < end && buf[k] != ',' ) k++;
+	    if ( k > tokenStart ) {
+		split.edges.add( from, split.titles.intern( buf, tokenStart, k - tokenStart ));
+	    }
+	    k++;
+	}
+    }
+}
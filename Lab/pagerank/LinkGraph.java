@@ -0,0 +1,205 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package pagerank;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ *   The link graph in compressed sparse row (CSR) form. The outlinks
+ *   of document i are
+ *
+ *   <pre>
+ *   targets[offsets[i]] ... targets[offsets[i+1]-1]
+ *   </pre>
+ *
+ *   sorted and without duplicates. The transpose (inlinks) is built
+ *   on demand in the same form, with sources in place of targets.
+ *   Memory use is 4 bytes per edge and 4 bytes per document.
+ */
+public class LinkGraph {
+
+    /**  Number of documents (nodes). */
+    final int numberOfDocs;
+
+    /**  Row offsets into @code{targets}, length numberOfDocs+1. */
+    final int[] offsets;
+
+    /**  Outlink targets, row by row. */
+    final int[] targets;
+
+    /**  Row offsets into @code{sources}, or null before buildTranspose(). */
+    int[] inOffsets = null;
+
+    /**  Inlink sources, row by row, or null before buildTranspose(). */
+    int[] sources = null;
+
+
+    /**
+     *   A growable buffer of edges, edge k going from from[k] to to[k].
+     */
+    static class EdgeBuffer {
+	int[] from = new int[1024];
+	int[] to = new int[1024];
+	int size = 0;
+
+	void add( int f, int t ) {
+	    if ( size == from.length ) {
+		from = Arrays.copyOf( from, 2*size );
+		to = Arrays.copyOf( to, 2*size );
+	    }
+	    from[size] = f;
+	    to[size] = t;
+	    size++;
+	}
+
+	void addAll( EdgeBuffer other ) {
+	    for ( int k=0; k<other.size; k++ ) {
+		add( other.from[k], other.to[k] );
+	    }
+	}
+
+	/**
+	 *   Drops all edges from the given documents.
+	 */
+	void removeFrom( BitSet docs ) {
+	    int write = 0;
+	    for ( int k=0; k<size; k++ ) {
+		if ( !docs.get( from[k] )) {
+		    from[write] = from[k];
+		    to[write] = to[k];
+		    write++;
+		}
+	    }
+	    size = write;
+	}
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    LinkGraph( int numberOfDocs, int[] offsets, int[] targets ) {
+	this.numberOfDocs = numberOfDocs;
+	this.offsets = offsets;
+	this.targets = targets;
+    }
+
+
+    /**
+     *   Builds the graph from an unsorted edge buffer, where edge k
+     *   goes from @code{from[k]} to @code{to[k]}. Only the first
+     *   @code{numberOfEdges} entries of the buffers are used, and
+     *   duplicate edges are dropped.
+     */
+    static LinkGraph fromEdges( int numberOfDocs, int[] from, int[] to, int numberOfEdges ) {
+	// Counting sort of the edges by source.
+	int[] offsets = new int[numberOfDocs+1];
+	for ( int k=0; k<numberOfEdges; k++ ) {
+	    offsets[from[k]+1]++;
+	}
+	for ( int i=0; i<numberOfDocs; i++ ) {
+	    offsets[i+1] += offsets[i];
+	}
+	int[] fill = Arrays.copyOf( offsets, numberOfDocs );
+	int[] targets = new int[numberOfEdges];
+	for ( int k=0; k<numberOfEdges; k++ ) {
+	    targets[fill[from[k]]++] = to[k];
+	}
+	// Sort each row and squeeze out duplicates in place.
+	int write = 0;
+	int rowStart = 0;
+	for ( int i=0; i<numberOfDocs; i++ ) {
+	    int rowEnd = offsets[i+1];
+	    Arrays.sort( targets, rowStart, rowEnd );
+	    offsets[i] = write;
+	    for ( int k=rowStart; k<rowEnd; k++ ) {
+		if ( k == rowStart || targets[k] != targets[k-1] ) {
+		    targets[write++] = targets[k];
+		}
+	    }
+	    rowStart = rowEnd;
+	}
+	offsets[numberOfDocs] = write;
+	if ( write < targets.length ) {
+	    targets = Arrays.copyOf( targets, write );
+	}
+	return new LinkGraph( numberOfDocs, offsets, targets );
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *   The links as an edge buffer, e.g. for applying changes.
+     */
+    EdgeBuffer toEdges() {
+	EdgeBuffer edges = new EdgeBuffer();
+	for ( int i=0; i<numberOfDocs; i++ ) {
+	    for ( int k=offsets[i]; k<offsets[i+1]; k++ ) {
+		edges.add( i, targets[k] );
+	    }
+	}
+	return edges;
+    }
+
+    int numberOfEdges() {
+	return targets.length;
+    }
+
+    /**
+     *   The number of outlinks from document i.
+     */
+    int outDegree( int i ) {
+	return offsets[i+1] - offsets[i];
+    }
+
+    /**
+     *   Whether document i links to document j.
+     */
+    boolean hasLink( int i, int j ) {
+	return Arrays.binarySearch( targets, offsets[i], offsets[i+1], j ) >= 0;
+    }
+
+    /**
+     *   The number of documents with no outlinks.
+     */
+    int numberOfSinks() {
+	int sinks = 0;
+	for ( int i=0; i<numberOfDocs; i++ ) {
+	    if ( offsets[i+1] == offsets[i] )
+		sinks++;
+	}
+	return sinks;
+    }
+
+    /**
+     *   Builds the inlink (transposed) representation, if not
+     *   already done. Sources come out sorted since rows are
+     *   visited in order.
+     */
+    void buildTranspose() {
+	if ( sources != null ) return;
+	int[] in = new int[numberOfDocs+1];
+	for ( int k=0; k<targets.length; k++ ) {
+	    in[targets[k]+1]++;
+	}
+	for ( int i=0; i<numberOfDocs; i++ ) {
+	    in[i+1] += in[i];
+	}
+	int[] fill = Arrays.copyOf( in, numberOfDocs );
+	int[] src = new int[targets.length];
+	for ( int i=0; i<numberOfDocs; i++ ) {
+	    for ( int k=offsets[i]; k<offsets[i+1]; k++ ) {
+		src[fill[targets[k]]++] = i;
+	    }
+	}
+	inOffsets = in;
+	sources = src;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package pagerank;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *   Parallel Monte Carlo estimation of PageRank over a LinkGraph.
+ *
+ *   The walks are cut into fixed size blocks, and every block has its
+ *   own random number generator derived from the seed and the block
+ *   number. Workers take blocks from a shared counter and count visits
+ *   in a private array, and the arrays are added up at the end. The
+ *   result therefore only depends on the seed, not on the number of
+ *   threads or on scheduling.
+ *
+ *   The five strategies are those of PageRank.monte_carlo_1 to 5.
+ */
+public class MonteCarlo {
+
+    /**  Random start, count the end point, jump from sinks. */
+    public static final int END_POINT_RANDOM_START = 1;
+
+    /**  Cyclic start, count the end point, jump from sinks. */
+    public static final int END_POINT_CYCLIC_START = 2;
+
+    /**  Cyclic start, count every visit, jump from sinks. */
+    public static final int COMPLETE_PATH = 3;
+
+    /**  Cyclic start, count every visit, stop at sinks. */
+    public static final int COMPLETE_PATH_STOP_AT_SINKS = 4;
+
+    /**  Random start, count every visit, stop at sinks. */
+    public static final int COMPLETE_PATH_STOP_AT_SINKS_RANDOM_START = 5;
+
+    /**  Number of walks per block, the unit of work and of seeding. */
+    static final int BLOCK_SIZE = 1 << 14;
+
+    final LinkGraph graph;
+    final double bored;
+
+    long seed = 0;
+    int numberOfThreads = Runtime.getRuntime().availableProcessors();
+
+
+    /* --------------------------------------------- */
+
+
+    public MonteCarlo( LinkGraph graph, double bored ) {
+	this.graph = graph;
+	this.bored = bored;
+    }
+
+    public MonteCarlo setSeed( long seed ) {
+	this.seed = seed;
+	return this;
+    }
+
+    public MonteCarlo setNumberOfThreads( int numberOfThreads ) {
+	this.numberOfThreads = Math.max( 1, numberOfThreads );
+	return this;
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *   Estimates PageRank with the given strategy. For the random
+     *   start strategies @code{runs} is the total number of walks,
+     *   for the cyclic ones it is the number of walks per document.
+     *   An empty graph gives an empty vector.
+     */
+    public double[] estimate( final int strategy, long runs ) {
+	final int n = graph.numberOfDocs;
+	// No document to start a walk from
+	if ( n == 0 ) return new double[0];
+	final boolean cyclic = strategy == END_POINT_CYCLIC_START ||
+	    strategy == COMPLETE_PATH || strategy == COMPLETE_PATH_STOP_AT_SINKS;
+	final long totalWalks = cyclic ? runs * n : runs;
+	final long numberOfBlocks = ( totalWalks + BLOCK_SIZE - 1 ) / BLOCK_SIZE;
+	final AtomicLong nextBlock = new AtomicLong( 0 );
+
+	List<Callable<long[]>> workers = new ArrayList<Callable<long[]>>();
+	for ( int t=0; t<numberOfThreads; t++ ) {
+	    workers.add( new Callable<long[]>() {
+		    public long[] call() {
+			long[] counts = new long[n];
+			long block;
+			while (( block = nextBlock.getAndIncrement() ) < numberOfBlocks ) {
+			    SplitMix rng = new SplitMix( seed, block );
+			    long first = block * BLOCK_SIZE;
+			    long last = Math.min( totalWalks, first + BLOCK_SIZE );
+			    for ( long w=first; w<last; w++ ) {
+				int start = cyclic ? (int) ( w % n ) : rng.nextInt( n );
+				walk( strategy, start, rng, counts );
+			    }
+			}
+			return counts;
+		    }
+		});
+	}
+
+	long startTime = System.nanoTime();
+	long[] counts = new long[n];
+	ExecutorService pool = Executors.newFixedThreadPool( numberOfThreads );
+	try {
+	    for ( Future<long[]> f : pool.invokeAll( workers )) {
+		long[] shard = f.get();
+		for ( int i=0; i<n; i++ ) {
+		    counts[i] += shard[i];
+		}
+	    }
+	}
+	catch ( InterruptedException e ) {
+	    Thread.currentThread().interrupt();
+	}
+	catch ( ExecutionException e ) {
+	    throw new RuntimeException( e.getCause() );
+	}
+	finally {
+	    pool.shutdown();
+	}
+	double seconds = ( System.nanoTime() - startTime ) / 1e9;
+	System.err.println( "Monte Carlo: " + totalWalks + " walks in " +
+			    Math.round( 1000*seconds ) + " ms (" +
+			    Math.round( totalWalks / Math.max( seconds, 1e-9 )) + " walks/s)" );
+
+	double[] pi = new double[n];
+	for ( int i=0; i<n; i++ ) {
+	    pi[i] = counts[i];
+	}
+	PowerIteration.normalize( pi );
+	return pi;
+    }
+
+
+    /**
+     *   Performs one random walk from @code{start}, recording visits
+     *   in @code{counts} according to the strategy.
+     */
+    private void walk( int strategy, int i, SplitMix rng, long[] counts ) {
+	int[] offsets = graph.offsets;
+	int[] targets = graph.targets;
+	int n = graph.numberOfDocs;
+	boolean stopAtSinks = strategy == COMPLETE_PATH_STOP_AT_SINKS ||
+	    strategy == COMPLETE_PATH_STOP_AT_SINKS_RANDOM_START;
+	boolean endPoint = strategy == END_POINT_RANDOM_START ||
+	    strategy == END_POINT_CYCLIC_START;
+	while ( rng.nextDouble() > bored ) {
+	    int out = offsets[i+1] - offsets[i];
+	    if ( out > 0 ) {
+		i = targets[offsets[i] + rng.nextInt( out )];
+	    }
+	    else if ( stopAtSinks ) {
+		break;
+	    }
+	    else {
+		i = rng.nextInt( n );
+	    }
+	    if ( !endPoint ) {
+		counts[i]++;
+	    }
+	}
+	if ( endPoint ) {
+	    counts[i]++;
+	}
+    }
+}
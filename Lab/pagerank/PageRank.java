@@ -12,44 +12,45 @@ import java.io.*;
 
 public class PageRank{
 
-    /**  
-     *   Maximal number of documents. We're assuming here that we
-     *   don't have more docs than we can keep in main memory.
-     */
-    final static int MAX_NUMBER_OF_DOCS = 2000000;
-
     /**
      *   Mapping from document names to document numbers.
      */
-    Hashtable<String,Integer> docNumber = new Hashtable<String,Integer>();
+    TitleTable titles = new TitleTable();
 
     /**
      *   Mapping from document numbers to document names
      */
-    String[] docName = new String[MAX_NUMBER_OF_DOCS];
+    String[] docName;
 
     /**  
-     *   A memory-efficient representation of the transition matrix.
-     *   The outlinks are represented as a Hashtable, whose keys are 
-     *   the numbers of the documents linked from.<p>
-     *
-     *   The value corresponding to key i is a Hashtable whose keys are 
-     *   all the numbers of documents j that i links to.<p>
-     *
-     *   If there are no outlinks from i, then the value corresponding 
-     *   key i is null.
+     *   The transition matrix as a link graph in compressed sparse
+     *   row form: the outlinks of document i are the targets between
+     *   offsets i and i+1. See LinkGraph.
      */
-    Hashtable<Integer,Hashtable<Integer,Boolean>> link = new Hashtable<Integer,Hashtable<Integer,Boolean>>();
+    LinkGraph graph;
 
     /**
-     *   The number of outlinks from each node.
+     *   The number of documents with no outlinks.
      */
-    int[] out = new int[MAX_NUMBER_OF_DOCS];
+    int numberOfSinks = 0;
 
     /**
-     *   The number of documents with no outlinks.
+     *   Options: delta link files to apply, scores to warm start
+     *   power iteration from, and a binary snapshot of the link
+     *   graph to load (or create) instead of parsing the link file.
      */
-    int numberOfSinks = 0;
+    List<String> deltaFilenames = new ArrayList<String>();
+    String warmStartFilename = null;
+    String snapshotFilename = null;
+
+    /**
+     *   Options for personalized PageRank: seed set files (lines of
+     *   "topic;title,title,..."), directories whose files form one
+     *   seed set each, and where to write the topic score files.
+     */
+    List<String> topicFilenames = new ArrayList<String>();
+    List<String> topicDirectories = new ArrayList<String>();
+    String topicOutputDirectory = "topics";
 
     /**
      *   The probability that the surfer will be bored, stop
@@ -69,78 +70,289 @@ public class PageRank{
      */
     final static int MAX_NUMBER_OF_ITERATIONS = 1000;
 
+    /**
+     *   Default file the scores are written to. The format is the
+     *   one read by ir.PageRankScores.
+     */
+    final static String SCORE_FILE = "pagerank.bin";
+
+    final static int SCORE_FILE_MAGIC = 0x50524b31;
+
     
     /* --------------------------------------------- */
 
 
     public PageRank( String filename ) {
-	int noOfDocs = readDocs( filename );
-	computePagerank( noOfDocs );
+	this( filename, SCORE_FILE );
+    }
+
+    public PageRank( String filename, String scoreFilename ) {
+	run( filename, scoreFilename );
+    }
+
+    /**
+     *   Incremental update: applies the delta link files and restarts
+     *   power iteration from the scores in @code{warmStartFilename}
+     *   (typically the previous contents of the score file), which
+     *   after a small change converges in a few iterations.
+     */
+    public PageRank( String filename, String scoreFilename,
+		     List<String> deltaFilenames, String warmStartFilename ) {
+	this.deltaFilenames = deltaFilenames;
+	this.warmStartFilename = warmStartFilename;
+	run( filename, scoreFilename );
+    }
+
+    /**
+     *   An instance to be configured through its option fields
+     *   and started with run().
+     */
+    PageRank() {
+    }
+
+
+    /**
+     *   Reads the links, computes the scores according to the options
+     *   and writes them to @code{scoreFilename}.
+     */
+    void run( String filename, String scoreFilename ) {
+	int noOfDocs = readDocs( filename, deltaFilenames );
+	if ( noOfDocs < 0 ) return;
+	double[] start = null;
+	if ( warmStartFilename != null ) {
+	    start = readScores( warmStartFilename, noOfDocs );
+	}
+	double[] pi;
+	if ( start == null ) {
+	    pi = computePagerank( noOfDocs );
+	}
+	else {
+	    pi = sparsePowerIteration( start );
+	    printHighest( pi, 50 );
+	}
+	writeScores( pi, scoreFilename );
+	if ( !topicFilenames.isEmpty() || !topicDirectories.isEmpty() ) {
+	    computeTopics();
+	}
     }
 
 
     /* --------------------------------------------- */
 
 
+    /**
+     *   Computes a personalized PageRank vector for every seed set in
+     *   one batch and writes each as a score file named after its
+     *   topic in @code{topicOutputDirectory}.
+     */
+    void computeTopics() {
+	List<String> topics = new ArrayList<String>();
+	List<int[]> seedSets = new ArrayList<int[]>();
+	for ( String filename : topicFilenames ) {
+	    readSeedSets( filename, topics, seedSets );
+	}
+	for ( String directory : topicDirectories ) {
+	    File dir = new File( directory );
+	    String[] files = dir.list();
+	    if ( files == null ) {
+		System.err.println( "Cannot list directory " + directory );
+		continue;
+	    }
+	    int[] seeds = new int[files.length];
+	    int found = 0;
+	    for ( String f : files ) {
+		int dot = f.lastIndexOf( '.' );
+		int doc = titles.find( dot > 0 ? f.substring( 0, dot ) : f );
+		if ( doc >= 0 ) seeds[found++] = doc;
+	    }
+	    addSeedSet( dir.getName(), Arrays.copyOf( seeds, found ), topics, seedSets );
+	}
+	if ( seedSets.isEmpty() ) return;
+
+	long start = System.nanoTime();
+	PersonalizedPageRank solver = new PersonalizedPageRank( graph, BORED )
+	    .setConvergence( EPSILON, MAX_NUMBER_OF_ITERATIONS );
+	double[][] vectors = solver.compute( seedSets );
+	System.err.println( "Personalized PageRank: " + seedSets.size() + " topics, " +
+			    solver.iterations + " iterations, " +
+			    (System.nanoTime()-start)/1000000 + " ms" );
+	new File( topicOutputDirectory ).mkdirs();
+	for ( int v=0; v<vectors.length; v++ ) {
+	    writeScores( vectors[v], new File( topicOutputDirectory, topics.get( v ) + ".bin" ).getPath() );
+	}
+    }
+
+
+    /**
+     *   Reads seed sets from a file in link file format, where each
+     *   line names a topic followed by the titles of its documents.
+     *   Titles that are not in the graph are ignored.
+     */
+    void readSeedSets( String filename, List<String> topics, List<int[]> seedSets ) {
+	TitleTable local = new TitleTable();
+	LinkGraph.EdgeBuffer edges = new LinkGraph.EdgeBuffer();
+	BitSet topicIds = new BitSet();
+	try {
+	    LinkFileReader.read( filename, local, edges, topicIds, 1 );
+	}
+	catch ( IOException e ) {
+	    System.err.println( "Error reading file " + filename );
+	    return;
+	}
+	// The titles of each topic, bucketed by topic in one pass
+	LinkGraph byTopic = LinkGraph.fromEdges( local.size(), edges.from, edges.to, edges.size );
+	for ( int t = topicIds.nextSetBit( 0 ); t >= 0; t = topicIds.nextSetBit( t+1 )) {
+	    int[] seeds = new int[byTopic.offsets[t+1] - byTopic.offsets[t]];
+	    int found = 0;
+	    for ( int k=byTopic.offsets[t]; k<byTopic.offsets[t+1]; k++ ) {
+		int doc = titles.find( local, byTopic.targets[k] );
+		if ( doc >= 0 ) seeds[found++] = doc;
+	    }
+	    addSeedSet( local.title( t ), Arrays.copyOf( seeds, found ), topics, seedSets );
+	}
+    }
+
+
+    private void addSeedSet( String topic, int[] seeds, List<String> topics, List<int[]> seedSets ) {
+	// Duplicates would get twice the teleport weight
+	Arrays.sort( seeds );
+	int unique = 0;
+	for ( int k=0; k<seeds.length; k++ ) {
+	    if ( k == 0 || seeds[k] != seeds[k-1] ) seeds[unique++] = seeds[k];
+	}
+	if ( unique == 0 ) {
+	    System.err.println( "Topic " + topic + " has no known documents, skipped" );
+	    return;
+	}
+	topics.add( topic );
+	seedSets.add( Arrays.copyOf( seeds, unique ));
+    }
+
+
     /**
      *   Reads the documents and creates the docs table. When this method 
-     *   finishes executing then the @code{out} vector of outlinks is 
-     *   initialised for each doc, and the @code{p} matrix is filled with
-     *   zeroes (that indicate direct links) and NO_LINK (if there is no
-     *   direct link. <p>
+     *   finishes executing then @code{docName} holds the title of each
+     *   doc, and @code{graph} holds the links, collected in an edge
+     *   buffer and then packed into compressed sparse rows. <p>
      *
-     *   @return the number of documents read.
+     *   @return the number of documents read, or -1 if the file
+     *   could not be read.
      */
     int readDocs( String filename ) {
-	int fileIndex = 0;
-	try {
-	    System.err.print( "Reading file... " );
-	    BufferedReader in = new BufferedReader( new FileReader( filename ));
-	    String line;
-	    while ((line = in.readLine()) != null && fileIndex<MAX_NUMBER_OF_DOCS ) {
-		int index = line.indexOf( ";" );
-		String title = line.substring( 0, index );
-		Integer fromdoc = docNumber.get( title );
-		//  Have we seen this document before?
-		if ( fromdoc == null ) {	
-		    // This is a previously unseen doc, so add it to the table.
-		    fromdoc = fileIndex++;
-		    docNumber.put( title, fromdoc );
-		    docName[fromdoc] = title;
-		}
-		// Check all outlinks.
-		StringTokenizer tok = new StringTokenizer( line.substring(index+1), "," );
-		while ( tok.hasMoreTokens() && fileIndex<MAX_NUMBER_OF_DOCS ) {
-		    String otherTitle = tok.nextToken();
-		    Integer otherDoc = docNumber.get( otherTitle );
-		    if ( otherDoc == null ) {
-			// This is a previousy unseen doc, so add it to the table.
-			otherDoc = fileIndex++;
-			docNumber.put( otherTitle, otherDoc );
-			docName[otherDoc] = otherTitle;
-		    }
-		    // Set the probability to 0 for now, to indicate that there is
-		    // a link from fromdoc to otherDoc.
-		    if ( link.get(fromdoc) == null ) {
-			link.put(fromdoc, new Hashtable<Integer,Boolean>());
-		    }
-		    if ( link.get(fromdoc).get(otherDoc) == null ) {
-			link.get(fromdoc).put( otherDoc, true );
-			out[fromdoc]++;
-		    }
-		}
+	return readDocs( filename, new ArrayList<String>() );
+    }
+
+
+    /**
+     *   Reads the documents as above, then applies the delta files in
+     *   order. A delta file has the same format as the link file, and
+     *   each of its lines replaces all outlinks of that document (an
+     *   empty line "title;" removes them). Titles not seen before are
+     *   added as new documents. If a file cannot be read, no graph
+     *   is built and no snapshot is saved.
+     *
+     *   @return the number of documents read, or -1 if a file
+     *   could not be read.
+     */
+    int readDocs( String filename, List<String> deltaFilenames ) {
+	LinkGraph.EdgeBuffer edges;
+	if ( snapshotFilename != null && isCurrent( snapshotFilename, filename )) {
+	    long start = System.nanoTime();
+	    try {
+		GraphSnapshot snapshot = GraphSnapshot.load( snapshotFilename );
+		titles = snapshot.titles;
+		graph = snapshot.graph;
+		System.err.println( "Loaded snapshot " + snapshotFilename + " in " +
+				    (System.nanoTime()-start)/1000000 + " ms" );
 	    }
-	    if ( fileIndex >= MAX_NUMBER_OF_DOCS ) {
-		System.err.print( "stopped reading since documents table is full. " );
+	    catch ( IOException e ) {
+		System.err.println( "Error reading snapshot " + snapshotFilename + ": " + e );
+		snapshotFilename = null;
+		return readDocs( filename, deltaFilenames );
 	    }
-	    else {
-		System.err.print( "done. " );
+	    if ( deltaFilenames.isEmpty() ) {
+		docName = titles.toArray();
+		numberOfSinks = graph.numberOfSinks();
+		System.err.println( "Read " + titles.size() + " number of documents" );
+		return titles.size();
+	    }
+	    edges = graph.toEdges();
+	}
+	else {
+	    edges = new LinkGraph.EdgeBuffer();
+	    if ( !readLinks( filename, edges, null )) {
+		return discardGraph();
+	    }
+	    if ( snapshotFilename != null ) {
+		graph = LinkGraph.fromEdges( titles.size(), edges.from, edges.to, edges.size );
+		try {
+		    GraphSnapshot.save( snapshotFilename, graph, titles );
+		    System.err.println( "Saved snapshot " + snapshotFilename );
+		}
+		catch ( IOException e ) {
+		    System.err.println( "Error writing snapshot " + snapshotFilename + ": " + e );
+		}
 	    }
-	    // Compute the number of sinks.
-	    for ( int i=0; i<fileIndex; i++ ) {
-		if ( out[i] == 0 )
-		    numberOfSinks++;
+	}
+	for ( String deltaFilename : deltaFilenames ) {
+	    LinkGraph.EdgeBuffer delta = new LinkGraph.EdgeBuffer();
+	    BitSet changed = new BitSet();
+	    if ( !readLinks( deltaFilename, delta, changed )) {
+		return discardGraph();
 	    }
+	    edges.removeFrom( changed );
+	    edges.addAll( delta );
+	    System.err.println( "Applied " + delta.size + " links of " +
+				changed.cardinality() + " changed documents" );
+	}
+	int fileIndex = titles.size();
+	docName = titles.toArray();
+	graph = LinkGraph.fromEdges( fileIndex, edges.from, edges.to, edges.size );
+	numberOfSinks = graph.numberOfSinks();
+	System.err.println( "Read " + fileIndex + " number of documents" );
+	return fileIndex;
+    }
+
+
+    /**
+     *   Drops a partly read graph so that it cannot be used.
+     *
+     *   @return -1, for readDocs to return.
+     */
+    private int discardGraph() {
+	titles = new TitleTable();
+	docName = null;
+	graph = null;
+	numberOfSinks = 0;
+	return -1;
+    }
+
+
+    /**
+     *   Whether the snapshot exists and is newer than the link file.
+     */
+    private static boolean isCurrent( String snapshotFilename, String filename ) {
+	File snapshot = new File( snapshotFilename );
+	return snapshot.exists() && snapshot.lastModified() >= new File( filename ).lastModified();
+    }
+
+
+    /**
+     *   Reads a link file, adding unseen titles to the docs table and
+     *   the links to @code{edges}. If @code{sources} is not null, the
+     *   numbers of the documents that have a line in the file are
+     *   set in it. See LinkFileReader.
+     *
+     *   @return false if the file could not be read.
+     */
+    boolean readLinks( String filename, LinkGraph.EdgeBuffer edges, BitSet sources ) {
+	try {
+	    System.err.print( "Reading file " + filename + "... " );
+	    long start = System.nanoTime();
+	    LinkFileReader.read( filename, titles, edges, sources,
+				 Runtime.getRuntime().availableProcessors() );
+	    System.err.print( "done in " + (System.nanoTime()-start)/1000000 + " ms. " );
+	    return true;
 	}
 	catch ( FileNotFoundException e ) {
 	    System.err.println( "File " + filename + " not found!" );
@@ -148,8 +360,70 @@ public class PageRank{
 	catch ( IOException e ) {
 	    System.err.println( "Error reading file " + filename );
 	}
-	System.err.println( "Read " + fileIndex + " number of documents" );
-	return fileIndex;
+	return false;
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *   Reads a score file written by writeScores and returns the
+     *   scores in the current document numbering, for use as a
+     *   warm start. Documents missing from the file get the average
+     *   score, and the vector is normalized. Returns null if the
+     *   file cannot be read.
+     */
+    double[] readScores( String filename, int numberOfDocs ) {
+	DataInputStream file = null;
+	try {
+	    file = new DataInputStream( new BufferedInputStream( new FileInputStream( filename )));
+	    if ( file.readInt() != SCORE_FILE_MAGIC ) {
+		System.err.println( filename + " is not a score file" );
+		return null;
+	    }
+	    int n = file.readInt();
+	    double[] scores = new double[n];
+	    for ( int i=0; i<n; i++ ) {
+		scores[i] = file.readDouble();
+	    }
+	    int[] offsets = new int[n+1];
+	    for ( int i=0; i<=n; i++ ) {
+		offsets[i] = file.readInt();
+	    }
+	    double[] pi = new double[numberOfDocs];
+	    Arrays.fill( pi, -1 );
+	    int found = 0;
+	    for ( int i=0; i<n; i++ ) {
+		byte[] title = new byte[offsets[i+1]-offsets[i]];
+		file.readFully( title );
+		int doc = titles.find( title, 0, title.length );
+		if ( doc >= 0 ) {
+		    pi[doc] = scores[i];
+		    found++;
+		}
+	    }
+	    double average = 1.0 / numberOfDocs;
+	    for ( int i=0; i<numberOfDocs; i++ ) {
+		if ( pi[i] < 0 ) pi[i] = average;
+	    }
+	    PowerIteration.normalize( pi );
+	    System.err.println( "Warm start from " + filename + ": " + found +
+				" of " + numberOfDocs + " documents known" );
+	    return pi;
+	}
+	catch ( IOException e ) {
+	    System.err.println( "Error reading file " + filename );
+	    return null;
+	}
+	finally {
+	    try {
+		if ( file != null ) file.close();
+	    }
+	    catch ( IOException e ) {
+		System.err.println( e );
+	    }
+	}
     }
 
 
@@ -198,8 +472,8 @@ public class PageRank{
 			for (int i = 0; i < pi.length; i++) {
 				for (int j = 0; j < pi.length; j++) {
 					double P_ij = BORED / pi.length;
-					if (link.get(i) != null && link.get(i).get(j) != null) {
-						P_ij += 1.0 / out[i];
+					if (graph.hasLink(i, j)) {
+						P_ij += 1.0 / graph.outDegree(i);
 					}
 					// System.out.println("" + i + " -> " + j);
 					pi_new[j] += pi[i] * P_ij;
@@ -238,11 +512,10 @@ public class PageRank{
 		for (int iter = 0; iter < maxIter && pi_diff > eps; iter++) {
 			Arrays.fill(pi_new, 0);
 			for (int i = 0; i < pi.length; i++) {
-				if (out[i] > 0) {
-					for (Integer j : link.get(i).keySet()) {
-						double P_ij = (1-BORED) / out[i];
-						pi_new[j] += pi[i] * P_ij;
-					}
+				int out_i = graph.outDegree(i);
+				for (int k = graph.offsets[i]; k < graph.offsets[i+1]; k++) {
+					double P_ij = (1-BORED) / out_i;
+					pi_new[graph.targets[k]] += pi[i] * P_ij;
 				}
 				pi_new[i] += BORED / pi.length;
 				pi_new[i] += numberOfSinks / pi.length / pi.length;
@@ -260,6 +533,31 @@ public class PageRank{
 		return pi;
 	}
 	
+	/**
+	 * Power iteration from the uniform distribution, sparse and
+	 * running on all cores. See PowerIteration.
+	 */
+	private double[] sparsePowerIteration(int numberOfDocs) {
+		double[] pi = new double[numberOfDocs];
+		Arrays.fill(pi, 1.0 / numberOfDocs);
+		return sparsePowerIteration(pi);
+	}
+	
+	/**
+	 * Sparse power iteration from a given start vector.
+	 */
+	private double[] sparsePowerIteration(double[] pi) {
+		PowerIteration solver = new PowerIteration(graph, BORED)
+			.setConvergence(PowerIteration.L1_NORM, EPSILON)
+			.setMaxIterations(MAX_NUMBER_OF_ITERATIONS);
+		long start = System.nanoTime();
+		pi = solver.solve(pi);
+		System.err.println("Power iteration: " + solver.iterations + " iterations, " +
+			(System.nanoTime() - start)/1000000 + " ms, " +
+			solver.numberOfThreads + " threads");
+		return pi;
+	}
+	
 	private double[] monte_carlo_1(int numberOfDocs, int maxIter) {
 		
 		int[] counts = new int[numberOfDocs];
@@ -275,11 +573,10 @@ public class PageRank{
 			int i = RNG.nextInt(numberOfDocs);
 			// System.out.println("Starting i:" + i);
 			while (RNG.nextDouble() > BORED) {
-				if (out[i] > 0) {
-					Integer[] outlinks = link.get(i).keySet().toArray(new Integer[0]);
-					int next_i = RNG.nextInt(outlinks.length);
+				if (graph.outDegree(i) > 0) {
+					int next_i = RNG.nextInt(graph.outDegree(i));
 					// System.out.println("Next i:" + next_i);
-					i = outlinks[next_i];
+					i = graph.targets[graph.offsets[i] + next_i];
 				} else {
 					i = RNG.nextInt(numberOfDocs);
 				}
@@ -312,11 +609,10 @@ public class PageRank{
 				int i = start_i;
 				// System.out.println("Starting i:" + i);
 				while (RNG.nextDouble() > BORED) {
-					if (out[i] > 0) {
-						Integer[] outlinks = link.get(i).keySet().toArray(new Integer[0]);
-						int next_i = RNG.nextInt(outlinks.length);
+					if (graph.outDegree(i) > 0) {
+						int next_i = RNG.nextInt(graph.outDegree(i));
 						// System.out.println("Next i:" + next_i);
-						i = outlinks[next_i];
+						i = graph.targets[graph.offsets[i] + next_i];
 					} else {
 						i = RNG.nextInt(numberOfDocs);
 					}
@@ -349,11 +645,10 @@ public class PageRank{
 				int i = start_i;
 				// System.out.println("Starting i:" + i);
 				while (RNG.nextDouble() > BORED) {
-					if (out[i] > 0) {
-						Integer[] outlinks = link.get(i).keySet().toArray(new Integer[0]);
-						int next_i = RNG.nextInt(outlinks.length);
+					if (graph.outDegree(i) > 0) {
+						int next_i = RNG.nextInt(graph.outDegree(i));
 						// System.out.println("Next i:" + next_i);
-						i = outlinks[next_i];
+						i = graph.targets[graph.offsets[i] + next_i];
 					} else {
 						i = RNG.nextInt(numberOfDocs);
 					}
@@ -386,11 +681,10 @@ public class PageRank{
 				int i = start_i;
 				// System.out.println("Starting i:" + i);
 				while (RNG.nextDouble() > BORED) {
-					if (out[i] > 0) {
-						Integer[] outlinks = link.get(i).keySet().toArray(new Integer[0]);
-						int next_i = RNG.nextInt(outlinks.length);
+					if (graph.outDegree(i) > 0) {
+						int next_i = RNG.nextInt(graph.outDegree(i));
 						// System.out.println("Next i:" + next_i);
-						i = outlinks[next_i];
+						i = graph.targets[graph.offsets[i] + next_i];
 					} else {
 						break;
 					}
@@ -422,11 +716,10 @@ public class PageRank{
 			int i = RNG.nextInt(numberOfDocs);
 			// System.out.println("Starting i:" + i);
 			while (RNG.nextDouble() > BORED) {
-				if (out[i] > 0) {
-					Integer[] outlinks = link.get(i).keySet().toArray(new Integer[0]);
-					int next_i = RNG.nextInt(outlinks.length);
+				if (graph.outDegree(i) > 0) {
+					int next_i = RNG.nextInt(graph.outDegree(i));
 					// System.out.println("Next i:" + next_i);
-					i = outlinks[next_i];
+					i = graph.targets[graph.offsets[i] + next_i];
 				} else {
 					break;
 				}
@@ -443,6 +736,65 @@ public class PageRank{
 		return pi;
 	}
 	
+	/**
+	 *   Writes the scores as a binary file keyed by document title:
+	 *   a header (magic, n), the scores in title order, n+1 offsets
+	 *   into the title blob and the UTF-8 titles sorted bytewise,
+	 *   so that the searcher can binary search the mapped file.
+	 */
+	void writeScores(double[] pi, String filename) {
+		int n = pi.length;
+		final byte[][] titles = new byte[n][];
+		Integer[] order = new Integer[n];
+		try {
+			for (int i = 0; i < n; i++) {
+				titles[i] = docName[i].getBytes("UTF-8");
+				order[i] = i;
+			}
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer i1, Integer i2) {
+				byte[] t1 = titles[i1];
+				byte[] t2 = titles[i2];
+				for (int k = 0; k < t1.length && k < t2.length; k++) {
+					int comp = (t1[k] & 0xff) - (t2[k] & 0xff);
+					if (comp != 0) return comp;
+				}
+				return t1.length - t2.length;
+			}
+		});
+		
+		DataOutputStream file = null;
+		try {
+			file = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+			file.writeInt(SCORE_FILE_MAGIC);
+			file.writeInt(n);
+			for (int i = 0; i < n; i++) {
+				file.writeDouble(pi[order[i]]);
+			}
+			int offset = 0;
+			for (int i = 0; i < n; i++) {
+				file.writeInt(offset);
+				offset += titles[order[i]].length;
+			}
+			file.writeInt(offset);
+			for (int i = 0; i < n; i++) {
+				file.write(titles[order[i]]);
+			}
+			System.err.println( "Wrote scores to " + filename );
+		} catch (IOException e) {
+			System.err.println( "Error writing file " + filename );
+		} finally {
+			try {
+				if (file != null) file.close();
+			} catch (IOException e) {
+				System.err.println(e);
+			}
+		}
+	}
+	
 	private void printHighest(double[] pi, int nToPrint) {
 		
 		ArrayList<Map.Entry<Integer, Double> > pi_res = new ArrayList<Map.Entry<Integer, Double> >();
@@ -473,21 +825,27 @@ public class PageRank{
     /*
      *   Computes the pagerank of each document.
      */
-    void computePagerank( int numberOfDocs ) {
+    double[] computePagerank( int numberOfDocs ) {
 		
 		double[] pi = null;
 		// double[] pi = randomStart(numberOfDocs);
 		// pi = powerIteration(pi, 10, EPSILON);
 		// pi = approximation_1(pi, 20, EPSILON);
+		pi = sparsePowerIteration(numberOfDocs);
 		
 		// pi = monte_carlo_1(numberOfDocs, 100*10000);
 		// pi = monte_carlo_2(numberOfDocs, 100);
 		// pi = monte_carlo_3(numberOfDocs, 100);
 		// pi = monte_carlo_4(numberOfDocs, 100);
-		pi = monte_carlo_5(numberOfDocs, 100*10000);
+		// pi = monte_carlo_5(numberOfDocs, 100*10000);
+		
+		// Parallel versions of the above, seeded for reproducibility
+		// pi = new MonteCarlo(graph, BORED).setSeed(2014)
+		//	.estimate(MonteCarlo.COMPLETE_PATH_STOP_AT_SINKS, 100);
 		
 		printHighest(pi, 50);
 		
+		return pi;
     }
 
 	
@@ -495,11 +853,60 @@ public class PageRank{
 
 
     public static void main( String[] args ) {
-	if ( args.length != 1 ) {
-	    System.err.println( "Please give the name of the link file" );
+	PageRank pagerank = new PageRank();
+	String linkFilename = null;
+	String scoreFilename = SCORE_FILE;
+	int positional = 0;
+	int i = 0;
+	while ( i < args.length ) {
+	    if ( "-delta".equals( args[i] ) && i+1 < args.length ) {
+		pagerank.deltaFilenames.add( args[i+1] );
+		i += 2;
+	    }
+	    else if ( "-warm".equals( args[i] ) && i+1 < args.length ) {
+		pagerank.warmStartFilename = args[i+1];
+		i += 2;
+	    }
+	    else if ( "-topics".equals( args[i] ) && i+1 < args.length ) {
+		pagerank.topicFilenames.add( args[i+1] );
+		i += 2;
+	    }
+	    else if ( "-topicdir".equals( args[i] ) && i+1 < args.length ) {
+		pagerank.topicDirectories.add( args[i+1] );
+		i += 2;
+	    }
+	    else if ( "-topicout".equals( args[i] ) && i+1 < args.length ) {
+		pagerank.topicOutputDirectory = args[i+1];
+		i += 2;
+	    }
+	    else if ( "-snapshot".equals( args[i] ) && i+1 < args.length ) {
+		pagerank.snapshotFilename = args[i+1];
+		i += 2;
+	    }
+	    else if ( positional == 0 ) {
+		linkFilename = args[i++];
+		positional++;
+	    }
+	    else if ( positional == 1 ) {
+		scoreFilename = args[i++];
+		positional++;
+	    }
+	    else {
+		System.err.println( "Unknown option: " + args[i] );
+		return;
+	    }
 	}
-	else {
-	    new PageRank( args[0] );
+	if ( linkFilename == null ) {
+	    System.err.println( "Please give the name of the link file (and optionally of the score file)" );
+	    System.err.println( "Incremental update: -delta <changed links> [-warm <previous scores>]" );
+	    System.err.println( "Binary graph snapshot: -snapshot <file>" );
+	    System.err.println( "Personalized PageRank: -topics <seed sets> | -topicdir <directory> [-topicout <directory>]" );
+	    return;
+	}
+	if ( !pagerank.deltaFilenames.isEmpty() && pagerank.warmStartFilename == null ) {
+	    // Start from the scores we are about to replace
+	    pagerank.warmStartFilename = scoreFilename;
 	}
+	pagerank.run( linkFilename, scoreFilename );
     }
 }
@@ -0,0 +1,246 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package pagerank;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ *   Computes several personalized (topic-sensitive) PageRank vectors
+ *   in one pass over the link graph. Vector v teleports, and leaves
+ *   sinks, uniformly to the documents of seed set v instead of to
+ *   all documents.
+ *
+ *   The k vectors are stored interleaved, pi[j*k + v], so that a
+ *   single sweep over the inlinks of document j updates all of them
+ *   with a short contiguous inner loop that the JIT can vectorize.
+ *   The sweep is split over threads as in PowerIteration.
+ */
+public class PersonalizedPageRank {
+
+    final LinkGraph graph;
+    final double bored;
+
+    double epsilon = 1e-8;
+    int maxIterations = 1000;
+    int numberOfThreads = Runtime.getRuntime().availableProcessors();
+
+    /**  Iterations used by the last compute(). */
+    int iterations = 0;
+
+    /**  Largest number of elements in an array. */
+    static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+
+    /* --------------------------------------------- */
+
+
+    public PersonalizedPageRank( LinkGraph graph, double bored ) {
+	this.graph = graph;
+	this.bored = bored;
+    }
+
+    public PersonalizedPageRank setConvergence( double epsilon, int maxIterations ) {
+	this.epsilon = epsilon;
+	this.maxIterations = maxIterations;
+	return this;
+    }
+
+    public PersonalizedPageRank setNumberOfThreads( int numberOfThreads ) {
+	this.numberOfThreads = Math.max( 1, numberOfThreads );
+	return this;
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *   Computes one vector per seed set. Iteration stops when the
+     *   L1 change of every vector is below epsilon.
+     *
+     *   @return the vectors, result[v][j] being the score of
+     *   document j for seed set v.
+     */
+    public double[][] compute( List<int[]> seedSets ) {
+	// The interleaved vectors have n*k elements, which must fit in
+	// an array, so many seed sets are computed in batches.
+	int batch = Math.max( 1, MAX_ARRAY_SIZE / Math.max( 1, graph.numberOfDocs ));
+	if ( seedSets.size() <= batch ) {
+	    return computeBatch( seedSets );
+	}
+	double[][] result = new double[seedSets.size()][];
+	int mostIterations = 0;
+	for ( int from=0; from<seedSets.size(); from+=batch ) {
+	    int to = Math.min( seedSets.size(), from + batch );
+	    double[][] part = computeBatch( seedSets.subList( from, to ));
+	    System.arraycopy( part, 0, result, from, part.length );
+	    mostIterations = Math.max( mostIterations, iterations );
+	}
+	iterations = mostIterations;
+	return result;
+    }
+
+
+    private double[][] computeBatch( List<int[]> seedSets ) {
+	graph.buildTranspose();
+	final int n = graph.numberOfDocs;
+	final int k = seedSets.size();
+	if ( (long) n * k > MAX_ARRAY_SIZE ) {
+	    throw new IllegalArgumentException( n + " documents times " + k + " seed sets is too many for one batch" );
+	}
+	final int[] chunkStart = PowerIteration.chunks( graph, 4*numberOfThreads );
+
+	// Teleport distributions, interleaved like the vectors.
+	final double[] teleport = new double[n*k];
+	for ( int v=0; v<k; v++ ) {
+	    int[] seeds = seedSets.get( v );
+	    for ( int j : seeds ) {
+		teleport[j*k + v] = 1.0 / seeds.length;
+	    }
+	}
+	double[] pi = teleport.clone();
+	double[] piNew = new double[n*k];
+	final double[] contrib = new double[n*k];
+	final double[] jump = new double[k];
+
+	ExecutorService pool = Executors.newFixedThreadPool( numberOfThreads );
+	try {
+	    double change = Double.MAX_VALUE;
+	    iterations = 0;
+	    while ( iterations < maxIterations && change > epsilon ) {
+		long startTime = System.nanoTime();
+		double[] sinkMass = new double[k];
+		for ( Future<double[]> f : pool.invokeAll( scatter( chunkStart, k, pi, contrib ))) {
+		    double[] part = f.get();
+		    for ( int v=0; v<k; v++ ) sinkMass[v] += part[v];
+		}
+		for ( int v=0; v<k; v++ ) {
+		    jump[v] = bored + (1-bored)*sinkMass[v];
+		}
+		double[] changes = new double[k];
+		for ( Future<double[]> f : pool.invokeAll( gather( chunkStart, k, pi, piNew, contrib, teleport, jump ))) {
+		    double[] part = f.get();
+		    for ( int v=0; v<k; v++ ) changes[v] += part[v];
+		}
+		change = 0;
+		for ( int v=0; v<k; v++ ) change = Math.max( change, changes[v] );
+		double[] tmp = pi;
+		pi = piNew;
+		piNew = tmp;
+		iterations++;
+		System.err.println( "Iteration " + iterations + ": largest change " + change +
+				    ", " + (System.nanoTime()-startTime)/1000000 + " ms" );
+	    }
+	}
+	catch ( InterruptedException e ) {
+	    Thread.currentThread().interrupt();
+	}
+	catch ( ExecutionException e ) {
+	    throw new RuntimeException( e.getCause() );
+	}
+	finally {
+	    pool.shutdown();
+	}
+
+	double[][] result = new double[k][n];
+	for ( int j=0; j<n; j++ ) {
+	    for ( int v=0; v<k; v++ ) {
+		result[v][j] = pi[j*k + v];
+	    }
+	}
+	for ( int v=0; v<k; v++ ) {
+	    PowerIteration.normalize( result[v] );
+	}
+	return result;
+    }
+
+
+    /**
+     *   Tasks computing contrib = pi/out for their chunk, each
+     *   returning the sink mass of every vector.
+     */
+    private List<Callable<double[]>> scatter( int[] chunkStart, final int k,
+					      final double[] pi, final double[] contrib ) {
+	List<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>();
+	for ( int c=0; c+1<chunkStart.length; c++ ) {
+	    final int from = chunkStart[c];
+	    final int to = chunkStart[c+1];
+	    tasks.add( new Callable<double[]>() {
+		    public double[] call() {
+			int[] offsets = graph.offsets;
+			double[] sinkMass = new double[k];
+			for ( int i=from; i<to; i++ ) {
+			    int out = offsets[i+1] - offsets[i];
+			    int base = i*k;
+			    if ( out > 0 ) {
+				double inv = 1.0 / out;
+				for ( int v=0; v<k; v++ ) {
+				    contrib[base+v] = pi[base+v] * inv;
+				}
+			    }
+			    else {
+				for ( int v=0; v<k; v++ ) {
+				    contrib[base+v] = 0;
+				    sinkMass[v] += pi[base+v];
+				}
+			    }
+			}
+			return sinkMass;
+		    }
+		});
+	}
+	return tasks;
+    }
+
+
+    /**
+     *   Tasks pulling the new values of all vectors for their chunk,
+     *   each returning the L1 change of every vector.
+     */
+    private List<Callable<double[]>> gather( int[] chunkStart, final int k,
+					     final double[] pi, final double[] piNew,
+					     final double[] contrib, final double[] teleport,
+					     final double[] jump ) {
+	List<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>();
+	for ( int c=0; c+1<chunkStart.length; c++ ) {
+	    final int from = chunkStart[c];
+	    final int to = chunkStart[c+1];
+	    tasks.add( new Callable<double[]>() {
+		    public double[] call() {
+			int[] inOffsets = graph.inOffsets;
+			int[] sources = graph.sources;
+			double follow = 1 - bored;
+			double[] s = new double[k];
+			double[] change = new double[k];
+			for ( int j=from; j<to; j++ ) {
+			    for ( int v=0; v<k; v++ ) s[v] = 0;
+			    for ( int e=inOffsets[j]; e<inOffsets[j+1]; e++ ) {
+				int base = sources[e]*k;
+				for ( int v=0; v<k; v++ ) {
+				    s[v] += contrib[base+v];
+				}
+			    }
+			    int base = j*k;
+			    for ( int v=0; v<k; v++ ) {
+				double value = jump[v]*teleport[base+v] + follow*s[v];
+				change[v] += Math.abs( value - pi[base+v] );
+				piNew[base+v] = value;
+			    }
+			}
+			return change;
+		    }
+		});
+	}
+	return tasks;
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package pagerank;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ *   Sparse, multi-threaded power iteration over a LinkGraph.
+ *
+ *   Each iteration is pull based: every document sums the
+ *   contributions pi[i]/out[i] of its inlinks (from the transposed
+ *   graph), so threads write disjoint parts of the new vector and
+ *   need no locking. The probability mass of sinks is spread
+ *   uniformly over all documents together with the random jumps.
+ */
+public class PowerIteration implements Solver {
+
+    /**  Convergence measured as the L1 norm of the change. */
+    public static final int L1_NORM = 0;
+
+    /**  Convergence measured as the largest change of a single document. */
+    public static final int MAX_NORM = 1;
+
+    final LinkGraph graph;
+    final double bored;
+
+    int convergence = L1_NORM;
+    double epsilon = 1e-8;
+    int maxIterations = 1000;
+    int numberOfThreads = Runtime.getRuntime().availableProcessors();
+
+    /**  Print a line per iteration. */
+    boolean verbose = true;
+
+    /**  Iterations used and final change of the last solve(). */
+    int iterations = 0;
+    double lastChange = 0;
+
+    /**  Documents [chunkStart[c], chunkStart[c+1]) belong to chunk c. */
+    private int[] chunkStart;
+
+
+    /* --------------------------------------------- */
+
+
+    public PowerIteration( LinkGraph graph, double bored ) {
+	this.graph = graph;
+	this.bored = bored;
+    }
+
+    public PowerIteration setConvergence( int convergence, double epsilon ) {
+	this.convergence = convergence;
+	this.epsilon = epsilon;
+	return this;
+    }
+
+    public PowerIteration setMaxIterations( int maxIterations ) {
+	this.maxIterations = maxIterations;
+	return this;
+    }
+
+    public PowerIteration setNumberOfThreads( int numberOfThreads ) {
+	this.numberOfThreads = Math.max( 1, numberOfThreads );
+	return this;
+    }
+
+    public PowerIteration setVerbose( boolean verbose ) {
+	this.verbose = verbose;
+	return this;
+    }
+
+    public String getName() {
+	return "power iteration (" + numberOfThreads + " threads)";
+    }
+
+    public void setTolerance( double epsilon, int maxIterations ) {
+	this.epsilon = epsilon;
+	this.maxIterations = maxIterations;
+    }
+
+    public int getIterations() {
+	return iterations;
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *   Splits the documents into chunks with roughly the same
+     *   number of inlinks, a few per thread for load balancing.
+     */
+    private void makeChunks() {
+	chunkStart = chunks( graph, 4*numberOfThreads );
+    }
+
+
+    /**
+     *   Boundaries of up to @code{numberOfChunks} ranges of documents
+     *   with roughly equal work (inlinks plus one per document).
+     *   Requires the transpose.
+     */
+    static int[] chunks( LinkGraph graph, int numberOfChunks ) {
+	int n = graph.numberOfDocs;
+	numberOfChunks = Math.max( 1, Math.min( n, numberOfChunks ));
+	long work = (long) graph.numberOfEdges() + n;
+	int[] chunkStart = new int[numberOfChunks+1];
+	int c = 1;
+	for ( int j=0; j<n && c<numberOfChunks; j++ ) {
+	    long done = (long) graph.inOffsets[j] + j;
+	    if ( done >= work*c/numberOfChunks ) {
+		chunkStart[c++] = j;
+	    }
+	}
+	while ( c <= numberOfChunks ) {
+	    chunkStart[c++] = n;
+	}
+	return chunkStart;
+    }
+
+
+    /**
+     *   Iterates from the given start vector (which is not modified)
+     *   until convergence or maxIterations, and returns the result.
+     */
+    public double[] solve( double[] start ) {
+	graph.buildTranspose();
+	makeChunks();
+	final int n = graph.numberOfDocs;
+	final double[] contrib = new double[n];
+	double[] pi = Arrays.copyOf( start, n );
+	double[] piNew = new double[n];
+	ExecutorService pool = Executors.newFixedThreadPool( numberOfThreads );
+	try {
+	    double change = Double.MAX_VALUE;
+	    iterations = 0;
+	    while ( iterations < maxIterations && change > epsilon ) {
+		long startTime = System.nanoTime();
+		double dangling = sum( pool, scatter( pi, contrib ));
+		double jump = ( bored + (1-bored)*dangling ) / n;
+		change = combine( pool, gather( pi, piNew, contrib, jump ));
+		double[] tmp = pi;
+		pi = piNew;
+		piNew = tmp;
+		iterations++;
+		if ( verbose ) {
+		    System.err.println( "Iteration " + iterations + ": change " + change +
+					", sink mass " + dangling +
+					", " + (System.nanoTime()-startTime)/1000000 + " ms" );
+		}
+	    }
+	    lastChange = change;
+	}
+	catch ( InterruptedException e ) {
+	    Thread.currentThread().interrupt();
+	}
+	catch ( ExecutionException e ) {
+	    throw new RuntimeException( e.getCause() );
+	}
+	finally {
+	    pool.shutdown();
+	}
+	normalize( pi );
+	return pi;
+    }
+
+
+    /**
+     *   Tasks computing contrib[i] = pi[i]/out[i], each returning the
+     *   probability mass of the sinks in its chunk.
+     */
+    private List<Callable<Double>> scatter( final double[] pi, final double[] contrib ) {
+	List<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+	for ( int c=0; c+1<chunkStart.length; c++ ) {
+	    final int from = chunkStart[c];
+	    final int to = chunkStart[c+1];
+	    tasks.add( new Callable<Double>() {
+		    public Double call() {
+			int[] offsets = graph.offsets;
+			double sinkMass = 0;
+			for ( int i=from; i<to; i++ ) {
+			    int out = offsets[i+1] - offsets[i];
+			    if ( out > 0 ) {
+				contrib[i] = pi[i] / out;
+			    }
+			    else {
+				contrib[i] = 0;
+				sinkMass += pi[i];
+			    }
+			}
+			return sinkMass;
+		    }
+		});
+	}
+	return tasks;
+    }
+
+
+    /**
+     *   Tasks pulling the new values of their chunk from the inlinks,
+     *   each returning its part of the change.
+     */
+    private List<Callable<Double>> gather( final double[] pi, final double[] piNew,
+					   final double[] contrib, final double jump ) {
+	List<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+	for ( int c=0; c+1<chunkStart.length; c++ ) {
+	    final int from = chunkStart[c];
+	    final int to = chunkStart[c+1];
+	    tasks.add( new Callable<Double>() {
+		    public Double call() {
+			int[] inOffsets = graph.inOffsets;
+			int[] sources = graph.sources;
+			double follow = 1 - bored;
+			double change = 0;
+			for ( int j=from; j<to; j++ ) {
+			    double s = 0;
+			    for ( int k=inOffsets[j]; k<inOffsets[j+1]; k++ ) {
+				s += contrib[sources[k]];
+			    }
+			    double value = jump + follow*s;
+			    double diff = Math.abs( value - pi[j] );
+			    if ( convergence == MAX_NORM ) {
+				change = Math.max( change, diff );
+			    }
+			    else {
+				change += diff;
+			    }
+			    piNew[j] = value;
+			}
+			return change;
+		    }
+		});
+	}
+	return tasks;
+    }
+
+
+    private double sum( ExecutorService pool, List<Callable<Double>> tasks )
+	throws InterruptedException, ExecutionException {
+	double total = 0;
+	for ( Future<Double> f : pool.invokeAll( tasks )) {
+	    total += f.get();
+	}
+	return total;
+    }
+
+    private double combine( ExecutorService pool, List<Callable<Double>> tasks )
+	throws InterruptedException, ExecutionException {
+	if ( convergence != MAX_NORM ) {
+	    return sum( pool, tasks );
+	}
+	double max = 0;
+	for ( Future<Double> f : pool.invokeAll( tasks )) {
+	    max = Math.max( max, f.get() );
+	}
+	return max;
+    }
+
+    static void normalize( double[] pi ) {
+	double total = 0;
+	for ( int i=0; i<pi.length; i++ ) {
+	    total += pi[i];
+	}
+	if ( total == 0 ) return;
+	for ( int i=0; i<pi.length; i++ ) {
+	    pi[i] /= total;
+	}
+    }
+}
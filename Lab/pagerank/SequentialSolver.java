@@ -0,0 +1,84 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package pagerank;
+
+/**
+ *   Common state of the single-threaded solvers, and the plain
+ *   sparse Jacobi (power iteration) step they are built from.
+ */
+abstract class SequentialSolver implements Solver {
+
+    final LinkGraph graph;
+    final double bored;
+
+    double epsilon = 1e-8;
+    int maxIterations = 1000;
+    int iterations = 0;
+
+    /**  Print a line per iteration. */
+    boolean verbose = false;
+
+
+    SequentialSolver( LinkGraph graph, double bored ) {
+	this.graph = graph;
+	this.bored = bored;
+	graph.buildTranspose();
+    }
+
+    public void setTolerance( double epsilon, int maxIterations ) {
+	this.epsilon = epsilon;
+	this.maxIterations = maxIterations;
+    }
+
+    public int getIterations() {
+	return iterations;
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *   The probability mass on sinks.
+     */
+    double sinkMass( double[] pi ) {
+	double mass = 0;
+	for ( int i=0; i<graph.numberOfDocs; i++ ) {
+	    if ( graph.offsets[i+1] == graph.offsets[i] ) mass += pi[i];
+	}
+	return mass;
+    }
+
+    /**
+     *   One pull-based power iteration step from pi into piNew.
+     *   Returns the L1 change.
+     */
+    double jacobiStep( double[] pi, double[] piNew ) {
+	int n = graph.numberOfDocs;
+	int[] offsets = graph.offsets;
+	int[] inOffsets = graph.inOffsets;
+	int[] sources = graph.sources;
+	double jump = ( bored + (1-bored)*sinkMass( pi )) / n;
+	double change = 0;
+	for ( int j=0; j<n; j++ ) {
+	    double s = 0;
+	    for ( int k=inOffsets[j]; k<inOffsets[j+1]; k++ ) {
+		int i = sources[k];
+		s += pi[i] / ( offsets[i+1] - offsets[i] );
+	    }
+	    piNew[j] = jump + (1-bored)*s;
+	    change += Math.abs( piNew[j] - pi[j] );
+	}
+	return change;
+    }
+
+    void report( double change ) {
+	if ( verbose ) {
+	    System.err.println( getName() + " iteration " + iterations + ": change " + change );
+	}
+    }
+}
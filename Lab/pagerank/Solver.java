@@ -0,0 +1,34 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package pagerank;
+
+/**
+ *   A method for computing the PageRank vector of a LinkGraph. All
+ *   solvers converge to the same vector: random jumps with probability
+ *   BORED, and the mass of sinks spread uniformly over all documents.
+ */
+public interface Solver {
+
+    /**  A short description for reports. */
+    public String getName();
+
+    /**
+     *   Stop when the L1 change of an iteration is below epsilon,
+     *   or after maxIterations iterations.
+     */
+    public void setTolerance( double epsilon, int maxIterations );
+
+    /**
+     *   Computes the normalized PageRank vector from the given start
+     *   vector, which is not modified.
+     */
+    public double[] solve( double[] start );
+
+    /**  The number of iterations (sweeps) of the last solve(). */
+    public int getIterations();
+
+}
@@ -0,0 +1,110 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package pagerank;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *   Compares the PageRank solvers on a link graph. The reference
+ *   vector is computed by power iteration to a much tighter tolerance
+ *   (or read from a score file), and every solver is then run from
+ *   the uniform vector to the given tolerance. For each solver the
+ *   number of iterations, the wall time and the L1 error against the
+ *   reference are reported.
+ *
+ *   Usage: java pagerank.SolverBenchmark linkfile [-snapshot file]
+ *          [-epsilon e] [-reference scorefile] [-runs r]
+ */
+public class SolverBenchmark {
+
+    public static void main( String[] args ) {
+	PageRank pagerank = new PageRank();
+	String linkFilename = null;
+	String referenceFilename = null;
+	double epsilon = 1e-8;
+	int runs = 3;
+	int i = 0;
+	while ( i < args.length ) {
+	    if ( "-snapshot".equals( args[i] ) && i+1 < args.length ) {
+		pagerank.snapshotFilename = args[i+1];
+		i += 2;
+	    }
+	    else if ( "-epsilon".equals( args[i] ) && i+1 < args.length ) {
+		epsilon = Double.parseDouble( args[i+1] );
+		i += 2;
+	    }
+	    else if ( "-reference".equals( args[i] ) && i+1 < args.length ) {
+		referenceFilename = args[i+1];
+		i += 2;
+	    }
+	    else if ( "-runs".equals( args[i] ) && i+1 < args.length ) {
+		runs = Math.max( 1, Integer.parseInt( args[i+1] ));
+		i += 2;
+	    }
+	    else if ( linkFilename == null ) {
+		linkFilename = args[i++];
+	    }
+	    else {
+		System.err.println( "Unknown option: " + args[i] );
+		return;
+	    }
+	}
+	if ( linkFilename == null ) {
+	    System.err.println( "Please give the name of the link file" );
+	    return;
+	}
+
+	int n = pagerank.readDocs( linkFilename );
+	if ( n < 0 ) return;
+	LinkGraph graph = pagerank.graph;
+	graph.buildTranspose();
+	double[] uniform = new double[n];
+	Arrays.fill( uniform, 1.0 / n );
+
+	double[] reference = null;
+	if ( referenceFilename != null ) {
+	    reference = pagerank.readScores( referenceFilename, n );
+	}
+	if ( reference == null ) {
+	    PowerIteration exact = new PowerIteration( graph, PageRank.BORED ).setVerbose( false );
+	    exact.setTolerance( Math.min( 1e-14, epsilon/1e4 ), 100000 );
+	    reference = exact.solve( uniform );
+	}
+
+	List<Solver> solvers = new ArrayList<Solver>();
+	solvers.add( new PowerIteration( graph, PageRank.BORED ).setVerbose( false ));
+	if ( Runtime.getRuntime().availableProcessors() > 1 ) {
+	    solvers.add( new PowerIteration( graph, PageRank.BORED ).setVerbose( false ).setNumberOfThreads( 1 ));
+	}
+	solvers.add( new GaussSeidel( graph, PageRank.BORED ));
+	solvers.add( new AdaptivePageRank( graph, PageRank.BORED ));
+	solvers.add( new ExtrapolatedPowerIteration( graph, PageRank.BORED, ExtrapolatedPowerIteration.AITKEN ));
+	solvers.add( new ExtrapolatedPowerIteration( graph, PageRank.BORED, ExtrapolatedPowerIteration.QUADRATIC ));
+
+	System.out.println( n + " documents, " + graph.numberOfEdges() + " links, epsilon " + epsilon +
+			    ", best of " + runs + " runs" );
+	System.out.println( String.format( "%-32s %10s %10s %14s", "solver", "iterations", "ms", "L1 error" ));
+	for ( Solver solver : solvers ) {
+	    solver.setTolerance( epsilon, PageRank.MAX_NUMBER_OF_ITERATIONS );
+	    long best = Long.MAX_VALUE;
+	    double[] pi = null;
+	    for ( int r=0; r<runs; r++ ) {
+		long start = System.nanoTime();
+		pi = solver.solve( uniform );
+		best = Math.min( best, System.nanoTime() - start );
+	    }
+	    double error = 0;
+	    for ( int j=0; j<n; j++ ) {
+		error += Math.abs( pi[j] - reference[j] );
+	    }
+	    System.out.println( String.format( "%-32s %10d %10.1f %14.3e", solver.getName(),
+					       solver.getIterations(), best / 1e6, error ));
+	}
+    }
+}
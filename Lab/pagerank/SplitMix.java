@@ -0,0 +1,57 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package pagerank;
+
+/**
+ *   A small, fast and unsynchronized random number generator
+ *   (SplitMix64). Each Monte Carlo worker gets its own instance,
+ *   and instances created from the same seed and stream number
+ *   always produce the same sequence.
+ */
+final class SplitMix {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long state;
+
+    SplitMix( long seed ) {
+	state = seed;
+    }
+
+    /**
+     *   An independent generator for the given stream of a seed.
+     */
+    SplitMix( long seed, long stream ) {
+	state = mix( seed + mix( stream * GOLDEN_GAMMA + GOLDEN_GAMMA ));
+    }
+
+    private static long mix( long z ) {
+	z = ( z ^ ( z >>> 30 )) * 0xbf58476d1ce4e5b9L;
+	z = ( z ^ ( z >>> 27 )) * 0x94d049bb133111ebL;
+	return z ^ ( z >>> 31 );
+    }
+
+    long nextLong() {
+	state += GOLDEN_GAMMA;
+	return mix( state );
+    }
+
+    /**
+     *   Uniform in [0, 1).
+     */
+    double nextDouble() {
+	return ( nextLong() >>> 11 ) * 0x1.0p-53;
+    }
+
+    /**
+     *   Uniform in [0, bound), bound > 0. Uses the multiply-shift
+     *   reduction, whose bias is negligible for graph sized bounds.
+     */
+    int nextInt( int bound ) {
+	return (int) ((( nextLong() >>> 32 ) * bound ) >>> 32 );
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ */
+
+package pagerank;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ *   Interns document titles, given as UTF-8 bytes, into consecutive
+ *   document numbers. The titles are kept back to back in one byte
+ *   blob, and the lookup is an open-addressing hash table with linear
+ *   probing keyed on the bytes, so no String is created while a link
+ *   file is parsed. All arrays grow as needed.
+ */
+class TitleTable {
+
+    static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    /**  Titles back to back; title i is blob[start[i]] .. blob[start[i+1]-1]. */
+    private byte[] blob = new byte[1 << 16];
+    private int[] start = new int[1024];
+    private int[] hashes = new int[1024];
+    private int size = 0;
+
+    /**  Document number + 1 in each slot, 0 for empty. */
+    private int[] slots = new int[2048];
+
+
+    /* --------------------------------------------- */
+
+
+    TitleTable() {
+    }
+
+    /**
+     *   A table holding the given titles, numbered in order. Used when
+     *   loading a GraphSnapshot; the hash table is rebuilt here.
+     */
+    TitleTable( byte[] blob, int[] start, int size ) {
+	this.blob = blob;
+	this.start = start;
+	this.size = size;
+	hashes = new int[Math.max( start.length, 1 )];
+	for ( int doc=0; doc<size; doc++ ) {
+	    hashes[doc] = hash( blob, start[doc], start[doc+1] - start[doc] );
+	}
+	int capacity = 2048;
+	while ( capacity < 2*size+2 ) {
+	    capacity *= 2;
+	}
+	fillSlots( capacity );
+    }
+
+    /**  The titles back to back, valid up to starts()[size()]. */
+    byte[] blob() {
+	return blob;
+    }
+
+    /**  Where title i starts in the blob; title size() is the end. */
+    int[] starts() {
+	return start;
+    }
+
+    int size() {
+	return size;
+    }
+
+    private static int hash( byte[] buf, int off, int len ) {
+	// FNV-1a
+	int h = 0x811c9dc5;
+	for ( int k=off; k<off+len; k++ ) {
+	    h = ( h ^ ( buf[k] & 0xff )) * 0x01000193;
+	}
+	return h ^ ( h >>> 16 );
+    }
+
+    private boolean equals( int doc, byte[] buf, int off, int len ) {
+	int s = start[doc];
+	if ( start[doc+1] - s != len ) return false;
+	for ( int k=0; k<len; k++ ) {
+	    if ( blob[s+k] != buf[off+k] ) return false;
+	}
+	return true;
+    }
+
+    /**
+     *   The number of the title, or -1 if it has not been seen.
+     */
+    int find( byte[] buf, int off, int len ) {
+	int h = hash( buf, off, len );
+	int mask = slots.length - 1;
+	for ( int p = h & mask; slots[p] != 0; p = ( p+1 ) & mask ) {
+	    int doc = slots[p] - 1;
+	    if ( hashes[doc] == h && equals( doc, buf, off, len )) {
+		return doc;
+	    }
+	}
+	return -1;
+    }
+
+    /**
+     *   The number of title @code{doc} of another table, or -1.
+     */
+    int find( TitleTable other, int doc ) {
+	return find( other.blob, other.start[doc], other.start[doc+1] - other.start[doc] );
+    }
+
+    int find( String title ) {
+	byte[] bytes = title.getBytes( UTF8 );
+	return find( bytes, 0, bytes.length );
+    }
+
+    /**
+     *   The number of the title, which is given the next free
+     *   number if it has not been seen before.
+     */
+    int intern( byte[] buf, int off, int len ) {
+	int h = hash( buf, off, len );
+	int mask = slots.length - 1;
+	int p = h & mask;
+	for ( ; slots[p] != 0; p = ( p+1 ) & mask ) {
+	    int doc = slots[p] - 1;
+	    if ( hashes[doc] == h && equals( doc, buf, off, len )) {
+		return doc;
+	    }
+	}
+	// A new title
+	int doc = size++;
+	if ( size+1 > start.length ) {
+	    start = Arrays.copyOf( start, 2*start.length );
+	    hashes = Arrays.copyOf( hashes, 2*hashes.length );
+	}
+	int end = start[doc] + len;
+	if ( end > blob.length ) {
+	    blob = Arrays.copyOf( blob, Math.max( 2*blob.length, end ));
+	}
+	System.arraycopy( buf, off, blob, start[doc], len );
+	start[doc+1] = end;
+	hashes[doc] = h;
+	slots[p] = doc + 1;
+	if ( 2*size > slots.length ) {
+	    rehash();
+	}
+	return doc;
+    }
+
+    private void rehash() {
+	fillSlots( 2*slots.length );
+    }
+
+    /**
+     *   Rebuilds the hash table with the given (power of two) capacity.
+     */
+    private void fillSlots( int capacity ) {
+	int[] table = new int[capacity];
+	int mask = capacity - 1;
+	for ( int doc=0; doc<size; doc++ ) {
+	    int p = hashes[doc] & mask;
+	    while ( table[p] != 0 ) {
+		p = ( p+1 ) & mask;
+	    }
+	    table[p] = doc + 1;
+	}
+	slots = table;
+    }
+
+    /**
+     *   Interns title @code{doc} of another table.
+     */
+    int intern( TitleTable other, int doc ) {
+	return intern( other.blob, other.start[doc], other.start[doc+1] - other.start[doc] );
+    }
+
+    String title( int doc ) {
+	return new String( blob, start[doc], start[doc+1] - start[doc], UTF8 );
+    }
+
+    String[] toArray() {
+	String[] titles = new String[size];
+	for ( int doc=0; doc<size; doc++ ) {
+	    titles[doc] = title( doc );
+	}
+	return titles;
+    }
+}